@@ -0,0 +1,189 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import assignments.AutograderAssignment;
+import classes.AutograderClass;
+import enrollments.EnrollmentResponse;
+import profiles.ProfileResponse;
+import sdk.QueryTemplate;
+import sdk.RestQueryBuilder;
+
+/**
+ * Offline benchmarks for the SDK. These do not talk to Supabase; they measure
+ * the local cost of the work the client does around each request.
+ */
+public class AutograderClientBenchmark {
+	private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws IOException {
+		System.out.println("\n **** benchmarks STARTED **** \n");
+		benchmarkCompression(500, 200);
+		benchmarkQueryTemplates(200_000);
+		System.out.println("\n **** benchmarks DONE **** ");
+	}
+
+	/**
+	 * Compares the size of a roster response (enrollment rows embedding the same
+	 * class and profile shape as getUserProfilesInClass) with the CPU time it
+	 * takes to compress it on the server and to decompress and parse it on the
+	 * client, at several gzip levels.
+	 */
+	public static void benchmarkCompression(int rows, int iterations) throws IOException {
+		byte[] json = JSON_FACTORY.toByteArray(roster(rows));
+		long parseNanos = cpuNanos(iterations, () -> parse(new ByteArrayInputStream(json)));
+		System.out.printf("compression (%d rows, %d iterations)%n", rows, iterations);
+		System.out.printf("\tidentity: %8d bytes, ratio %5.2f, compress %7.3f ms, decompress+parse %7.3f ms%n",
+				json.length, 1.0, 0.0, parseNanos / 1e6 / iterations);
+
+		for (int level : new int[] { 1, 6, 9 }) {
+			byte[] gzipped = gzip(json, level);
+			long compressNanos = cpuNanos(iterations, () -> gzip(json, level));
+			long decodeNanos = cpuNanos(iterations,
+					() -> parse(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+			System.out.printf("\tgzip -%d:  %8d bytes, ratio %5.2f, compress %7.3f ms, decompress+parse %7.3f ms%n",
+					level, gzipped.length, (double) json.length / gzipped.length, compressNanos / 1e6 / iterations,
+					decodeNanos / 1e6 / iterations);
+		}
+	}
+
+	/**
+	 * Compares the cost of building the URL of a submission lookup from a
+	 * generated query string, as a fresh RestQueryBuilder and a parsed GenericUrl,
+	 * with filling in a compiled template. Both include the GenericUrl.build the
+	 * HTTP client calls when sending, and are measured in CPU time and bytes
+	 * allocated per request.
+	 */
+	public static void benchmarkQueryTemplates(int iterations) throws IOException {
+		String baseUrl = "https://abcdefghijklmnop.supabase.co";
+		GenericUrl base = new GenericUrl(baseUrl);
+		String assignmentId = "cfdad040-4e03-4bf6-b816-c1f7776959cb";
+		String profileId = "0b7e0d3c-4e7b-4e7b-9d69-46b2b0162636";
+		QueryTemplate template = RestQueryBuilder.from("submission") //
+				.select("*") //
+				.equalsParameter("assignment_id", String.class) //
+				.equalsParameter("profile_id", String.class) //
+				.equalsParameter("version", Integer.class) //
+				.equalsParameter("file_name", String.class) //
+				.compile();
+
+		Task queryString = () -> new GenericUrl(baseUrl + RestQueryBuilder.from("submission") //
+				.select("*") //
+				.equals("assignment_id", assignmentId) //
+				.equals("profile_id", profileId) //
+				.equals("version", 3) //
+				.equals("file_name", "Main Test.java") //
+				.generateQuery()).build();
+		Task compiled = () -> template.toUrl(base, assignmentId, profileId, 3, "Main Test.java").build();
+
+		String expected = new GenericUrl(baseUrl + RestQueryBuilder.from("submission") //
+				.select("*") //
+				.equals("assignment_id", assignmentId) //
+				.equals("profile_id", profileId) //
+				.equals("version", 3) //
+				.equals("file_name", "Main Test.java") //
+				.generateQuery()).build();
+		String actual = template.toUrl(base, assignmentId, profileId, 3, "Main Test.java").build();
+
+		System.out.printf("query templates (%d iterations)%n", iterations);
+		System.out.printf("\tsame request: %b (%s)%n", sortedQuery(expected).equals(sortedQuery(actual)), actual);
+		System.out.printf("\tquery string: %7.0f ns, %6.0f bytes allocated per request%n",
+				(double) cpuNanos(iterations, queryString) / iterations,
+				(double) allocatedBytes(iterations, queryString) / iterations);
+		System.out.printf("\ttemplate:     %7.0f ns, %6.0f bytes allocated per request%n",
+				(double) cpuNanos(iterations, compiled) / iterations,
+				(double) allocatedBytes(iterations, compiled) / iterations);
+	}
+
+	private static String sortedQuery(String url) {
+		int start = url.indexOf('?');
+		String[] parameters = url.substring(start + 1).split("&");
+		Arrays.sort(parameters);
+		return url.substring(0, start) + "?" + String.join("&", parameters);
+	}
+
+	private interface Task {
+		void run() throws IOException;
+	}
+
+	private static long cpuNanos(int iterations, Task task) throws IOException {
+		for (int i = 0; i < iterations / 10 + 1; i++) {
+			task.run();
+		}
+		long start = THREADS.getCurrentThreadCpuTime();
+		for (int i = 0; i < iterations; i++) {
+			task.run();
+		}
+		return THREADS.getCurrentThreadCpuTime() - start;
+	}
+
+	private static long allocatedBytes(int iterations, Task task) throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < iterations / 10 + 1; i++) {
+			task.run();
+		}
+		long start = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++) {
+			task.run();
+		}
+		return threads.getThreadAllocatedBytes(threadId) - start;
+	}
+
+	private static void parse(InputStream in) throws IOException {
+		JSON_FACTORY.createJsonParser(in, StandardCharsets.UTF_8).parseAndClose(EnrollmentResponse[].class);
+	}
+
+	private static byte[] gzip(byte[] content, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			gzip.write(content);
+		}
+		return out.toByteArray();
+	}
+
+	private static EnrollmentResponse[] roster(int rows) {
+		AutograderAssignment assignment = new AutograderAssignment();
+		assignment.id = "cfdad040-4e03-4bf6-b816-c1f7776959cb";
+		assignment.name = "Week One";
+		assignment.description = "Data structures";
+		assignment.required_files = new String[] { "Test.java" };
+		assignment.class_id = "47cb01e0-ad85-4225-b46f-4899674a7159";
+
+		EnrollmentResponse[] enrollments = new EnrollmentResponse[rows];
+		for (int i = 0; i < rows; i++) {
+			AutograderClass autograderClass = new AutograderClass();
+			autograderClass.id = assignment.class_id;
+			autograderClass.name = "CS 101";
+			autograderClass.quarter = "Fall 2024";
+			autograderClass.assignments = new AutograderAssignment[] { assignment };
+
+			ProfileResponse profile = new ProfileResponse();
+			profile.id = String.format("%08x-4e7b-4e7b-9d69-46b2b0162636", i);
+			profile.email = "student" + i + "@example.edu";
+			profile.authId = String.format("%08x-b7ef-4ed4-a23b-8cac2ba04417", i * 31);
+
+			enrollments[i] = new EnrollmentResponse();
+			enrollments[i].type = "student";
+			enrollments[i].singleClass = autograderClass;
+			enrollments[i].profile = profile;
+		}
+		return enrollments;
+	}
+}
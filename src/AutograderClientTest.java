@@ -1,10 +1,36 @@
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.sun.net.httpserver.HttpServer;
+
+import assignments.AutograderAssignment;
 import classes.AutograderClass;
+import classes.ClassGraph;
+import coordination.InMemoryLeaseStore;
+import coordination.InMemoryWorkerRegistry;
+import coordination.WorkPartitioner;
+import grading.Grader;
+import grading.GradingPipeline;
+import grading.GradingResultCache;
 import profiles.ProfileResponse;
 import sdk.AutograderClient;
+import sdk.JsonExporter;
+import storage.ContentStore;
 import storage.SubmissionResponse;
 import submissions.AssignmentSubmissionResponse;
 
@@ -31,7 +57,7 @@ public class AutograderClientTest {
 	
 	public static String[] passFail = { "PASS", "FAIL" };
 	
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws Exception {
 		
 		AutograderClientTest tester = new AutograderClientTest();
 		System.out.println("\n **** testing STARTED **** \n");
@@ -47,6 +73,13 @@ public class AutograderClientTest {
 		tester.testGetSubmittedStudents();
 		tester.testGetSubmittedVersionsForAssignment();
 		tester.testGetFileInputStream();
+		tester.testGradingPipeline();
+		tester.testGetClassGraph();
+		tester.testExportAssignmentSubmissions();
+		tester.testPartitionedGrading();
+		tester.testDownloadSubmissionBytes();
+		tester.testContentStore();
+		tester.testGradingResultCache();
 		System.out.println("\n **** testing DONE **** ");
 	}
 
@@ -131,8 +164,189 @@ public class AutograderClientTest {
 	public void testGetFileInputStream() throws IOException {
 		String version = "1";
 		String fileName = "Test.java";
-		InputStream stream = client.getFileInputStream(profileId, assignmentId, version, fileName);
-		System.out.println("testGetFileInputStream " + stream);
+		try (InputStream stream = client.getFileInputStream(profileId, assignmentId, version, fileName)) {
+			System.out.println("testGetFileInputStream " + stream);
+		}
 	}
 	
+	public void testGradingPipeline() throws IOException {
+		GradingPipeline pipeline = GradingPipeline.of(client, classId2, assignmentId).prefetch(4);
+		Map<String, Integer> response = pipeline.run((profile, files) -> files.size());
+		System.out.println("testGradingPipeline " + response + " " + pipeline.getMetrics());
+	}
+
+	public void testGetClassGraph() throws IOException {
+		ClassGraph graph = client.getClassGraph(classId2, assignmentId);
+		System.out.println("testGetClassGraph " + graph + " " + graph.getSubmittedStudents(assignmentId));
+	}
+
+	public void testExportAssignmentSubmissions() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonExporter exporter = JsonExporter.to(out, false).ndjson(true)) {
+			exporter.writeAll(client.streamAssignmentSubmissions(assignmentId, 100));
+		}
+		System.out.println("testExportAssignmentSubmissions " + out);
+	}
+
+	public void testPartitionedGrading() throws IOException, InterruptedException {
+		System.out.print("Testing partitionedGrading\t");
+		Map<String, Integer> expected = new TreeMap<>();
+		for (String id : GradingPipeline.of(client, classId2, assignmentId).run((profile, files) -> 1).keySet()) {
+			expected.put(id, 1);
+		}
+
+		InMemoryWorkerRegistry registry = new InMemoryWorkerRegistry();
+		InMemoryLeaseStore leases = new InMemoryLeaseStore();
+		Map<String, Integer> gradings = new ConcurrentHashMap<>();
+		String round = assignmentId + "/" + System.currentTimeMillis();
+		List<WorkPartitioner> workers = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			WorkPartitioner worker = new WorkPartitioner("worker-" + i, registry).leases(leases).round(round);
+			worker.start();
+			workers.add(worker);
+		}
+		List<Thread> threads = new ArrayList<>();
+		List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+		for (WorkPartitioner worker : workers) {
+			Thread thread = new Thread(() -> {
+				try (WorkPartitioner partitioner = worker) {
+					GradingPipeline.of(client, classId2, assignmentId).partition(partitioner)
+							.run((profile, files) -> gradings.merge(profile.id, 1, Integer::sum));
+				} catch (IOException e) {
+					failures.add(e);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		printResults(failures + " " + new TreeMap<>(gradings), "[] " + expected);
+	}
+
+	public void testDownloadSubmissionBytes() throws IOException {
+		System.out.print("Testing downloadSubmissionBytes\t");
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		file.write("// Pr\u00fcfung: \u65e5\u672c\u8a9e\n".getBytes(StandardCharsets.UTF_8));
+		file.write(new byte[] { 0, (byte) 0xff, (byte) 0xfe });
+		byte[] expected = file.toByteArray();
+		Map<String, byte[]> objects = new HashMap<>();
+		objects.put("/storage/v1/object/submissions/auth-1/submission-1", expected);
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = startStorage(objects, requests);
+		try {
+			AutograderClient local = new AutograderClient("http://localhost:" + server.getAddress().getPort(), "anon")
+					.session("token");
+			ProfileResponse profile = new ProfileResponse();
+			profile.authId = "auth-1";
+			AssignmentSubmissionResponse submission = new AssignmentSubmissionResponse();
+			submission.id = "submission-1";
+
+			ByteArrayOutputStream direct = new ByteArrayOutputStream();
+			local.downloadSubmission(profile, submission, direct);
+			local.setContentStore(new ContentStore());
+			ByteArrayOutputStream stored = new ByteArrayOutputStream();
+			local.downloadSubmission(profile, submission, stored);
+			ByteArrayOutputStream cached = new ByteArrayOutputStream();
+			local.downloadSubmission(profile, submission, cached);
+			printResults(Arrays.equals(expected, direct.toByteArray()) + " " + Arrays.equals(expected, stored.toByteArray())
+					+ " " + Arrays.equals(expected, cached.toByteArray()) + " " + requests, "true true true 2");
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	public void testContentStore() throws IOException {
+		System.out.print("Testing contentStore\t");
+		Path directory = Files.createTempDirectory("content-store");
+		byte[] first = "class A { }".getBytes(StandardCharsets.UTF_8);
+		byte[] second = "class A { int b; }".getBytes(StandardCharsets.UTF_8);
+		byte[] third = "class C { }".getBytes(StandardCharsets.UTF_8);
+		StringBuilder actual = new StringBuilder();
+
+		ContentStore store = ContentStore.open(directory);
+		actual.append("miss:").append(store.lookup("user:1", "/a") == null);
+		store.store("user:1", "/a", "\"1\"", "UTF-8", first);
+		actual.append(" hit:").append(Arrays.equals(first, store.lookup("user:1", "/a").content));
+		actual.append(" otherUser:").append(store.lookup("user:2", "/a") == null);
+		store.store("user:1", "/a", "\"2\"", "UTF-8", second);
+		store.store("user:1", "/c", "\"3\"", "UTF-8", third);
+
+		// Superseded lines are dropped when the store is opened again.
+		store = ContentStore.open(directory);
+		actual.append(" reloaded:").append(Arrays.equals(second, store.lookup("user:1", "/a").content));
+		actual.append(" etag:").append(store.lookup("user:1", "/a").etag);
+		actual.append(" lines:").append(Files.readAllLines(directory.resolve("index")).size());
+
+		Path secondFile = directory.resolve(ContentStore.hash(second).substring(0, 2)).resolve(ContentStore.hash(second));
+		Files.write(secondFile, "corrupt".getBytes(StandardCharsets.UTF_8));
+		Path thirdFile = directory.resolve(ContentStore.hash(third).substring(0, 2)).resolve(ContentStore.hash(third));
+		Files.delete(thirdFile);
+		store = ContentStore.open(directory);
+		actual.append(" corrupt:").append(store.lookup("user:1", "/a") == null);
+		actual.append(" deleted:").append(!Files.exists(secondFile));
+		actual.append(" missing:").append(store.lookup("user:1", "/c") == null);
+		store.store("user:1", "/a", "\"2\"", "UTF-8", second);
+		actual.append(" restored:").append(Arrays.equals(second, ContentStore.open(directory).lookup("user:1", "/a").content));
+
+		printResults(actual.toString(), "miss:true hit:true otherUser:true reloaded:true etag:\"2\" lines:2"
+				+ " corrupt:true deleted:true missing:true restored:true");
+	}
+
+	public void testGradingResultCache() throws Exception {
+		System.out.print("Testing gradingResultCache\t");
+		Path file = Files.createTempFile("grading-results", ".ndjson");
+		AutograderAssignment assignment = new AutograderAssignment();
+		assignment.required_files = new String[] { "Main.java" };
+		AtomicInteger graded = new AtomicInteger();
+		Grader<Integer> grader = (profile, files) -> graded.incrementAndGet();
+		ProfileResponse profile = new ProfileResponse();
+		Map<String, String> files = new HashMap<>();
+		files.put("Main.java", "class Main { }");
+		files.put("notes.txt", "first");
+		StringBuilder actual = new StringBuilder();
+
+		GradingResultCache<Integer> cache = new GradingResultCache<Integer>("v1", assignment).persist(file,
+				Integer.class);
+		Grader<Integer> cached = cache.wrap(grader);
+		actual.append("miss:").append(cached.grade(profile, files));
+		// Files that are not required do not change the key.
+		files.put("notes.txt", "second");
+		actual.append(" hit:").append(cached.grade(profile, files));
+		files.put("Main.java", "class Main { int changed; }");
+		actual.append(" changed:").append(cached.grade(profile, files));
+
+		Files.write(file, "damaged\t{\"not\": \n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		GradingResultCache<Integer> reloaded = new GradingResultCache<Integer>("v1", assignment).persist(file,
+				Integer.class);
+		actual.append(" reloaded:").append(reloaded.size()).append(" result:").append(reloaded.get(files));
+		GradingResultCache<Integer> newVersion = new GradingResultCache<Integer>("v2", assignment).persist(file,
+				Integer.class);
+		actual.append(" newVersion:").append(newVersion.get(files));
+
+		printResults(actual.toString(), "miss:1 hit:1 changed:2 reloaded:2 result:2 newVersion:null");
+	}
+
+	/**
+	 * Serves files from a local stand-in for Supabase storage, keyed by object
+	 * path, as bytes without a charset, and counts the requests it answers.
+	 */
+	private static HttpServer startStorage(Map<String, byte[]> objects, AtomicInteger requests) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/storage/v1/object/submissions/", exchange -> {
+			requests.incrementAndGet();
+			byte[] body = objects.get(exchange.getRequestURI().getPath());
+			if (body == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else {
+				exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+		return server;
+	}
 }
@@ -4,6 +4,8 @@ import java.util.Arrays;
 
 import com.google.api.client.util.Key;
 
+import submissions.AssignmentSubmissionResponse;
+
 public class AutograderAssignment {
     @Key
     public String id;
@@ -22,6 +24,10 @@ public class AutograderAssignment {
 
     @Key
     public String class_id;
+
+    // Only set on the rows of a class graph query, until the graph is built.
+    @Key("submission")
+    public AssignmentSubmissionResponse[] submissions;
     
     @Override
     public String toString() {
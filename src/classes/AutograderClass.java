@@ -1,6 +1,7 @@
 package classes;
 
 import assignments.AutograderAssignment;
+import enrollments.EnrollmentResponse;
 
 import java.util.Arrays;
 
@@ -18,6 +19,10 @@ public class AutograderClass {
 
     @Key("assignment")
     public AutograderAssignment[] assignments;
+
+    // Only present when embedded by a composite query, see ClassGraph
+    @Key("enrollment")
+    public EnrollmentResponse[] enrollments;
     
     @Override
     public String toString() {
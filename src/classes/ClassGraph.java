@@ -0,0 +1,164 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assignments.AutograderAssignment;
+import enrollments.EnrollmentResponse;
+import profiles.ProfileResponse;
+import submissions.AssignmentSubmissionResponse;
+
+/**
+ * A deduplicated view of a class, its assignments, the enrolled profiles and
+ * their submissions, built from a single composite query. Every profile is kept
+ * once and points at the same class object, instead of each enrollment row
+ * carrying its own copy of the class.
+ */
+public class ClassGraph {
+    private final AutograderClass autograderClass;
+    private final Map<String, AutograderAssignment> assignments = new LinkedHashMap<>();
+    private final Map<String, ProfileResponse> profiles = new LinkedHashMap<>();
+    private final Map<String, String> enrollmentTypes = new LinkedHashMap<>();
+    private final Map<String, Map<String, List<AssignmentSubmissionResponse>>> submissions = new LinkedHashMap<>();
+
+    private ClassGraph(AutograderClass autograderClass) {
+        this.autograderClass = autograderClass;
+    }
+
+    /**
+     * Builds the graph from a class row with embedded assignments, their
+     * submissions, and enrollments with their profiles. Submissions of profiles
+     * not enrolled in the class are dropped. The embedded enrollments and
+     * submissions are detached from the class afterwards so that the graph holds
+     * no cycles and the class can still be serialized.
+     *
+     * @param autograderClass The class row returned by the composite query.
+     * @return The deduplicated graph.
+     */
+    public static ClassGraph from(AutograderClass autograderClass) {
+        ClassGraph graph = new ClassGraph(autograderClass);
+        if (autograderClass.assignments != null) {
+            for (AutograderAssignment assignment : autograderClass.assignments) {
+                graph.assignments.put(assignment.id, assignment);
+            }
+        }
+
+        EnrollmentResponse[] enrollments = autograderClass.enrollments;
+        autograderClass.enrollments = null;
+        if (enrollments != null) {
+            AutograderClass[] classes = { autograderClass };
+            for (EnrollmentResponse enrollment : enrollments) {
+                ProfileResponse profile = enrollment.profile;
+                if (profile == null || graph.profiles.containsKey(profile.id)) {
+                    continue;
+                }
+                profile.classes = classes;
+                graph.profiles.put(profile.id, profile);
+                graph.enrollmentTypes.put(profile.id, enrollment.type);
+                graph.submissions.put(profile.id, new LinkedHashMap<>());
+            }
+        }
+
+        for (AutograderAssignment assignment : graph.assignments.values()) {
+            if (assignment.submissions == null) {
+                continue;
+            }
+            for (AssignmentSubmissionResponse submission : assignment.submissions) {
+                Map<String, List<AssignmentSubmissionResponse>> byAssignment = graph.submissions.get(submission.profileId);
+                if (byAssignment != null) {
+                    byAssignment.computeIfAbsent(assignment.id, id -> new ArrayList<>()).add(submission);
+                }
+            }
+            assignment.submissions = null;
+        }
+        return graph;
+    }
+
+    public AutograderClass getAutograderClass() {
+        return this.autograderClass;
+    }
+
+    public List<AutograderAssignment> getAssignments() {
+        return new ArrayList<>(this.assignments.values());
+    }
+
+    public AutograderAssignment getAssignment(String assignmentId) {
+        return this.assignments.get(assignmentId);
+    }
+
+    public List<ProfileResponse> getProfiles() {
+        return new ArrayList<>(this.profiles.values());
+    }
+
+    public ProfileResponse getProfile(String profileId) {
+        return this.profiles.get(profileId);
+    }
+
+    public List<ProfileResponse> getStudents() {
+        return this.getProfilesOfType("student");
+    }
+
+    public List<ProfileResponse> getTeachers() {
+        return this.getProfilesOfType("teacher");
+    }
+
+    /**
+     * @return Every submission row of the profile for the assignment, or an empty
+     *         list if there are none.
+     */
+    public List<AssignmentSubmissionResponse> getSubmissions(String profileId, String assignmentId) {
+        Map<String, List<AssignmentSubmissionResponse>> byAssignment = this.submissions.get(profileId);
+        if (byAssignment == null || !byAssignment.containsKey(assignmentId)) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(byAssignment.get(assignmentId));
+    }
+
+    /**
+     * Same as getSubmittedStudents on the client, without any further requests.
+     *
+     * @return The students that submitted every required file of the assignment.
+     */
+    public List<ProfileResponse> getSubmittedStudents(String assignmentId) {
+        AutograderAssignment assignment = this.assignments.get(assignmentId);
+        if (assignment == null) {
+            throw new RuntimeException(
+                    String.format("Assignment '%s' not in Class '%s'.", assignmentId, this.autograderClass.id));
+        }
+
+        List<String> requiredFiles = assignment.required_files == null ? Collections.emptyList()
+                : Arrays.asList(assignment.required_files);
+        List<ProfileResponse> submitted = new ArrayList<>();
+        for (ProfileResponse profile : this.getStudents()) {
+            Set<String> submittedFileNames = new HashSet<>();
+            for (AssignmentSubmissionResponse submission : this.getSubmissions(profile.id, assignmentId)) {
+                submittedFileNames.add(submission.fileName);
+            }
+            if (submittedFileNames.containsAll(requiredFiles)) {
+                submitted.add(profile);
+            }
+        }
+        return submitted;
+    }
+
+    private List<ProfileResponse> getProfilesOfType(String type) {
+        List<ProfileResponse> matching = new ArrayList<>();
+        for (Map.Entry<String, ProfileResponse> entry : this.profiles.entrySet()) {
+            if (type.equals(this.enrollmentTypes.get(entry.getKey()))) {
+                matching.add(entry.getValue());
+            }
+        }
+        return matching;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("class:[%s], profiles:%d", autograderClass, profiles.size());
+    }
+}
@@ -0,0 +1,466 @@
+package cli;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import assignments.AutograderAssignment;
+import classes.ClassGraph;
+import profiles.ProfileResponse;
+import sdk.AutograderClient;
+import sdk.HedgingPolicy;
+import sdk.JsonExporter;
+import storage.ContentStore;
+import submissions.AssignmentSubmissionResponse;
+
+/**
+ * Command-line entry point for bulk tasks. Results are written to stdout (or
+ * --output) as NDJSON, one row per line, or as a single JSON array; progress,
+ * throughput, latency and errors are reported on stderr, so the output can be
+ * piped into other tools. Exits with 0 on success, 1 if any item failed and 2
+ * on a usage error.
+ *
+ * The client is configured from the environment: SUPABASE_URL and
+ * SUPABASE_ANON_KEY, and either AUTOGRADER_TOKEN or AUTOGRADER_EMAIL and
+ * AUTOGRADER_PASSWORD. Each can be overridden by the matching option.
+ *
+ * <pre>
+ * java -XX:TieredStopAtLevel=1 -cp bin:jars/* cli.AutograderCli completion --class $CLASS --assignment $ASSIGNMENT \
+ * 		| jq -r 'select(.complete | not) | .email'
+ * </pre>
+ */
+public class AutograderCli {
+	private static final String USAGE = String.join(System.lineSeparator(), //
+			"usage: AutograderCli <command> [options]", //
+			"", //
+			"commands:", //
+			"  export      --assignment ID [--since TIMESTAMP]     every submission row of an assignment", //
+			"              --assignment ID --class ID --contents   the latest files of every student, with contents", //
+			"  completion  --class ID --assignment ID              submitted and missing files per student", //
+			"  sync        --assignment ID --out DIR [--state FILE | --since TIMESTAMP] [--store DIR]", //
+			"                                                      download submissions created since the last sync", //
+			"  warm        --class ID --assignment ID --out DIR [--store DIR]", //
+			"                                                      download the latest files of every student", //
+			"", //
+			"options:", //
+			"  --url URL --key KEY          Supabase URL and anon key (SUPABASE_URL, SUPABASE_ANON_KEY)", //
+			"  --token JWT                  access token (AUTOGRADER_TOKEN)", //
+			"  --email EMAIL                sign in (AUTOGRADER_EMAIL, password in AUTOGRADER_PASSWORD)", //
+			"  --parallel N                 concurrent downloads (default 8)", //
+			"  --page-size N                rows per listing request (default 1000)", //
+			"  --format ndjson|json         output format (default ndjson)", //
+			"  --output FILE                write to FILE instead of stdout", //
+			"  --gzip --pretty              gzip the output, pretty print JSON", //
+			"  --progress-ms N              time between progress lines (default 1000)", //
+			"  --quiet                      no progress on stderr", //
+			"  --hedge                      hedge slow GET requests (listings, downloads, HEADs)", //
+			"  --slow-ms N                  log calls slower than N ms", //
+			"  --store DIR                  content store kept by sync and warm (default OUT/.store)");
+
+	private final CliOptions options;
+	private ProgressReporter reporter;
+
+	AutograderCli(CliOptions options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) {
+		int status;
+		try {
+			CliOptions options = CliOptions.parse(args);
+			if (options.has("help")) {
+				System.err.println(USAGE);
+				status = options.getCommand().equals("help") ? 0 : 2;
+			} else {
+				status = new AutograderCli(options).run();
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			status = 2;
+		} catch (Exception e) {
+			System.err.println("error: " + e);
+			status = 1;
+		}
+		System.exit(status);
+	}
+
+	int run() throws IOException, InterruptedException {
+		String command = this.options.getCommand();
+		if (!Arrays.asList("export", "completion", "sync", "warm").contains(command)) {
+			throw new IllegalArgumentException(String.format("Unknown command '%s'.", command));
+		}
+		AutograderClient client = this.createClient();
+
+		this.reporter = new ProgressReporter(command, this.options.has("quiet") ? null : System.err,
+				this.options.getInt("progress-ms", 1000));
+		try (JsonExporter exporter = this.createExporter()) {
+			this.reporter.start();
+			try {
+				switch (command) {
+				case "export":
+					this.export(client, exporter);
+					break;
+				case "completion":
+					this.completion(client, exporter);
+					break;
+				case "sync":
+					this.sync(client, exporter);
+					break;
+				default:
+					this.warm(client, exporter);
+				}
+			} finally {
+				this.reporter.close();
+			}
+		}
+		return this.reporter.getErrors() == 0 ? 0 : 1;
+	}
+
+	private AutograderClient createClient() throws IOException {
+		String url = this.options.get("url", "SUPABASE_URL");
+		String key = this.options.get("key", "SUPABASE_ANON_KEY");
+		if (url == null || key == null) {
+			throw new IllegalArgumentException("Set SUPABASE_URL and SUPABASE_ANON_KEY, or pass --url and --key.");
+		}
+
+		AutograderClient client = new AutograderClient(url, key);
+		if (this.options.has("hedge")) {
+			client.setHedgingPolicy(new HedgingPolicy());
+		}
+		if (this.options.get("slow-ms") != null) {
+			client.setSlowCallThreshold(this.options.getInt("slow-ms", -1), TimeUnit.MILLISECONDS);
+		}
+
+		String token = this.options.get("token", "AUTOGRADER_TOKEN");
+		if (token != null) {
+			return client.session(token);
+		}
+		String email = this.options.get("email", "AUTOGRADER_EMAIL");
+		if (email != null) {
+			AutograderClient session = client.openSession(email,
+					this.options.get("password", "AUTOGRADER_PASSWORD"));
+			if (session == null) {
+				throw new IOException(String.format("Could not sign in as '%s'.", email));
+			}
+			return session;
+		}
+		return client;
+	}
+
+	private JsonExporter createExporter() throws IOException {
+		String format = this.options.get("format") == null ? "ndjson" : this.options.get("format");
+		if (!format.equals("ndjson") && !format.equals("json")) {
+			throw new IllegalArgumentException(String.format("Unknown format '%s'.", format));
+		}
+		String output = this.options.get("output");
+		OutputStream out = output == null ? System.out : new FileOutputStream(output);
+		return JsonExporter.to(out, this.options.has("gzip")) //
+				.ndjson(format.equals("ndjson")) //
+				.prettyPrint(this.options.has("pretty"));
+	}
+
+	/**
+	 * Streams every submission row, or with --contents downloads the latest
+	 * version of every file of every student in parallel.
+	 */
+	private void export(AutograderClient client, JsonExporter exporter) throws IOException, InterruptedException {
+		String assignmentId = this.options.require("assignment");
+		if (!this.options.has("contents")) {
+			long start = System.nanoTime();
+			for (AssignmentSubmissionResponse submission : client.streamAssignmentSubmissions(assignmentId,
+					this.options.get("since"), this.options.getInt("page-size", 1000))) {
+				exporter.write(row(submission.profile, submission));
+				this.reporter.recordSuccess(System.nanoTime() - start);
+				start = System.nanoTime();
+			}
+			return;
+		}
+
+		ClassGraph graph = this.getClassGraph(client, assignmentId);
+		List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> files = latestFiles(graph, assignmentId);
+		this.reporter.setTotal(files.size());
+		this.runParallel(exporter, files, (profile, submission) -> {
+			Map<String, Object> row = row(profile, submission);
+			row.put("content", client.downloadSubmission(profile, submission));
+			return row;
+		});
+	}
+
+	/**
+	 * Lists which required files every student submitted, from one request.
+	 */
+	private void completion(AutograderClient client, JsonExporter exporter) throws IOException {
+		String assignmentId = this.options.require("assignment");
+		ClassGraph graph = this.getClassGraph(client, assignmentId);
+		AutograderAssignment assignment = graph.getAssignment(assignmentId);
+		List<String> requiredFiles = assignment.required_files == null ? Collections.emptyList()
+				: Arrays.asList(assignment.required_files);
+
+		List<ProfileResponse> students = graph.getStudents();
+		this.reporter.setTotal(students.size());
+		for (ProfileResponse student : students) {
+			long start = System.nanoTime();
+			Map<String, Integer> submitted = new LinkedHashMap<>();
+			for (AssignmentSubmissionResponse submission : graph.getSubmissions(student.id, assignmentId)) {
+				if (submission.version == null) {
+					submitted.putIfAbsent(submission.fileName, null);
+				} else {
+					submitted.merge(submission.fileName, submission.version, Math::max);
+				}
+			}
+			List<String> missing = new ArrayList<>(requiredFiles);
+			missing.removeAll(submitted.keySet());
+
+			Map<String, Object> row = new LinkedHashMap<>();
+			row.put("profile_id", student.id);
+			row.put("email", student.email);
+			row.put("complete", missing.isEmpty());
+			row.put("submitted", new ArrayList<>(submitted.keySet()));
+			row.put("missing", missing);
+			row.put("latest_version",
+					submitted.values().stream().filter(Objects::nonNull).max(Integer::compare).orElse(null));
+			exporter.write(row);
+			this.reporter.recordSuccess(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Downloads every submission created since the high-water mark into --out and
+	 * advances the mark in --state once every download succeeded. The state holds
+	 * the mark on its first line and the ids of the rows created at exactly the
+	 * mark on the next ones; rows at the mark are listed again, since more of them
+	 * may have committed after the last sync, and the ids skip those already
+	 * downloaded.
+	 */
+	private void sync(AutograderClient client, JsonExporter exporter) throws IOException, InterruptedException {
+		String assignmentId = this.options.require("assignment");
+		Path out = Paths.get(this.options.require("out"));
+		String statePath = this.options.get("state");
+		String since = this.options.get("since");
+		Set<String> synced = new HashSet<>();
+		if (statePath != null && since == null && Files.exists(Paths.get(statePath))) {
+			List<String> state = Files.readAllLines(Paths.get(statePath), StandardCharsets.UTF_8);
+			if (!state.isEmpty() && !state.get(0).trim().isEmpty()) {
+				since = state.get(0).trim();
+				synced.addAll(state.subList(1, state.size()));
+			}
+		}
+		this.openStore(client, out);
+
+		String latest = since;
+		Set<String> latestIds = new LinkedHashSet<>(synced);
+		Iterable<AssignmentSubmissionResponse> submissions = client.streamAssignmentSubmissions(assignmentId, since,
+				this.options.getInt("page-size", 1000));
+		List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> files = new ArrayList<>();
+		for (AssignmentSubmissionResponse submission : submissions) {
+			if (synced.contains(submission.id)) {
+				continue;
+			}
+			files.add(new SimpleEntry<>(submission.profile, submission));
+			// Rows are ordered by created_at, so the last one is the new mark.
+			if (!submission.created_at.equals(latest)) {
+				latest = submission.created_at;
+				latestIds.clear();
+			}
+			latestIds.add(submission.id);
+		}
+		this.reporter.setTotal(files.size());
+		this.runParallel(exporter, files, (profile, submission) -> this.mirror(client, out, profile, submission));
+
+		if (statePath != null && this.reporter.getErrors() == 0 && latest != null) {
+			List<String> state = new ArrayList<>();
+			state.add(latest);
+			state.addAll(latestIds);
+			Files.write(Paths.get(statePath), state, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Downloads the latest version of every file of every student into --out and
+	 * into the content store, so that graders and later syncs start from a full
+	 * local copy. A client reading the store as the same user, with
+	 * setContentStore(ContentStore.open(dir)), then downloads none of them.
+	 */
+	private void warm(AutograderClient client, JsonExporter exporter) throws IOException, InterruptedException {
+		String assignmentId = this.options.require("assignment");
+		Path out = Paths.get(this.options.require("out"));
+		this.openStore(client, out);
+		ClassGraph graph = this.getClassGraph(client, assignmentId);
+		List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> files = latestFiles(graph, assignmentId);
+		this.reporter.setTotal(files.size());
+		this.runParallel(exporter, files, (profile, submission) -> this.mirror(client, out, profile, submission));
+	}
+
+	/**
+	 * Keeps downloads in the content store at --store, or OUT/.store.
+	 */
+	private void openStore(AutograderClient client, Path out) throws IOException {
+		String store = this.options.get("store");
+		client.setContentStore(ContentStore.open(store == null ? out.resolve(".store") : Paths.get(store)));
+	}
+
+	private ClassGraph getClassGraph(AutograderClient client, String assignmentId) throws IOException {
+		String classId = this.options.require("class");
+		ClassGraph graph = client.getClassGraph(classId, assignmentId);
+		if (graph == null) {
+			throw new IOException(String.format("Could not load Class '%s'.", classId));
+		}
+		if (graph.getAssignment(assignmentId) == null) {
+			throw new IllegalArgumentException(
+					String.format("Assignment '%s' not in Class '%s'.", assignmentId, classId));
+		}
+		return graph;
+	}
+
+	private static List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> latestFiles(ClassGraph graph,
+			String assignmentId) {
+		List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> files = new ArrayList<>();
+		for (ProfileResponse student : graph.getStudents()) {
+			Map<String, AssignmentSubmissionResponse> latest = new HashMap<>();
+			for (AssignmentSubmissionResponse submission : graph.getSubmissions(student.id, assignmentId)) {
+				latest.merge(submission.fileName, submission,
+						(previous, current) -> previous.version == null
+								|| (current.version != null && current.version > previous.version) ? current : previous);
+			}
+			for (AssignmentSubmissionResponse submission : latest.values()) {
+				files.add(new SimpleEntry<>(student, submission));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Writes one file to DIR/profile_id/vVERSION/file_name unless it is already
+	 * there. The file is downloaded either way, which fills the content store and
+	 * costs nothing for files the store already has. The bytes are written as
+	 * stored, never decoded as text, so binary and non-ASCII files stay intact.
+	 */
+	private Map<String, Object> mirror(AutograderClient client, Path out, ProfileResponse profile,
+			AssignmentSubmissionResponse submission) throws IOException {
+		Path directory = out.resolve(profile.id).resolve("v" + submission.version).normalize();
+		Path path = directory.resolve(submission.fileName).normalize();
+		if (!path.getParent().equals(directory) || !directory.startsWith(out.normalize())) {
+			throw new IOException(String.format("Refusing to write '%s' outside of '%s'.", submission.fileName, out));
+		}
+
+		Map<String, Object> row = row(profile, submission);
+		row.put("path", path.toString());
+		Files.createDirectories(directory);
+		Path partial = directory.resolve(submission.fileName + ".part");
+		try {
+			try (OutputStream file = Files.newOutputStream(partial)) {
+				if (!client.downloadSubmission(profile, submission, file)) {
+					throw new IOException(
+							String.format("Could not download '%s' of '%s'.", submission.fileName, profile.id));
+				}
+			}
+			if (Files.exists(path)) {
+				row.put("skipped", true);
+				return row;
+			}
+			Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(partial);
+		}
+		row.put("skipped", false);
+		row.put("bytes", Files.size(path));
+		return row;
+	}
+
+	private static Map<String, Object> row(ProfileResponse profile, AssignmentSubmissionResponse submission) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("id", submission.id);
+		row.put("profile_id", submission.profileId != null ? submission.profileId : profile == null ? null : profile.id);
+		row.put("email", profile == null ? null : profile.email);
+		row.put("assignment_id", submission.assignmentId);
+		row.put("file_name", submission.fileName);
+		row.put("version", submission.version);
+		row.put("created_at", submission.created_at);
+		return row;
+	}
+
+	private interface FileTask {
+		Map<String, Object> run(ProfileResponse profile, AssignmentSubmissionResponse submission) throws Exception;
+	}
+
+	/**
+	 * Runs the task over the files on --parallel threads, writing each result as
+	 * a row. A failed file is reported on stderr and counted; it does not stop the
+	 * others. Failing to write the output (a closed pipe, say) stops everything.
+	 */
+	private void runParallel(JsonExporter exporter, List<Map.Entry<ProfileResponse, AssignmentSubmissionResponse>> files,
+			FileTask task) throws IOException, InterruptedException {
+		int parallel = Math.max(1, this.options.getInt("parallel", 8));
+		ExecutorService executor = Executors.newFixedThreadPool(parallel);
+		// Bounds the files waiting for a thread, so results stream out as they finish.
+		Semaphore inFlight = new Semaphore(parallel * 2);
+		AtomicReference<IOException> outputFailure = new AtomicReference<>();
+		try {
+			for (Map.Entry<ProfileResponse, AssignmentSubmissionResponse> file : files) {
+				inFlight.acquire();
+				if (outputFailure.get() != null) {
+					break;
+				}
+				executor.execute(() -> {
+					ProfileResponse profile = file.getKey();
+					AssignmentSubmissionResponse submission = file.getValue();
+					long start = System.nanoTime();
+					try {
+						Map<String, Object> row;
+						try {
+							row = task.run(profile, submission);
+						} catch (Exception e) {
+							this.reportError(profile, submission, e);
+							return;
+						}
+						try {
+							synchronized (exporter) {
+								exporter.write(row);
+							}
+							this.reporter.recordSuccess(System.nanoTime() - start);
+						} catch (IOException e) {
+							outputFailure.compareAndSet(null, e);
+						}
+					} finally {
+						inFlight.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		if (outputFailure.get() != null) {
+			throw outputFailure.get();
+		}
+	}
+
+	private void reportError(ProfileResponse profile, AssignmentSubmissionResponse submission, Exception e) {
+		this.reporter.recordError();
+		System.err.printf("error: %s %s v%s: %s%n", profile == null ? submission.profileId : profile.id,
+				submission.fileName, submission.version, e);
+	}
+}
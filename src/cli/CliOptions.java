@@ -0,0 +1,106 @@
+package cli;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The command and options of one CLI invocation. Options are written as
+ * --name value or --name=value; flags take no value.
+ */
+class CliOptions {
+	private static final Set<String> FLAGS = new HashSet<>(
+			Arrays.asList("contents", "gzip", "pretty", "quiet", "hedge", "help"));
+
+	private final String command;
+	private final Map<String, String> values = new HashMap<>();
+	private final Set<String> flags = new HashSet<>();
+
+	private CliOptions(String command) {
+		this.command = command;
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the arguments are malformed.
+	 */
+	static CliOptions parse(String[] args) {
+		if (args.length == 0 || args[0].startsWith("--")) {
+			CliOptions options = new CliOptions("help");
+			options.flags.add("help");
+			return options;
+		}
+
+		CliOptions options = new CliOptions(args[0]);
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException(String.format("Unexpected argument '%s'.", arg));
+			}
+			String name = arg.substring(2);
+			String value = null;
+			int equals = name.indexOf('=');
+			if (equals >= 0) {
+				value = name.substring(equals + 1);
+				name = name.substring(0, equals);
+			}
+
+			if (FLAGS.contains(name)) {
+				if (value != null) {
+					throw new IllegalArgumentException(String.format("--%s does not take a value.", name));
+				}
+				options.flags.add(name);
+				continue;
+			}
+			if (value == null) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException(String.format("--%s needs a value.", name));
+				}
+				value = args[++i];
+			}
+			options.values.put(name, value);
+		}
+		return options;
+	}
+
+	String getCommand() {
+		return this.command;
+	}
+
+	boolean has(String flag) {
+		return this.flags.contains(flag);
+	}
+
+	/**
+	 * @return The option, or else the environment variable, or else null.
+	 */
+	String get(String name, String environmentVariable) {
+		String value = this.values.get(name);
+		return value != null ? value : System.getenv(environmentVariable);
+	}
+
+	String get(String name) {
+		return this.values.get(name);
+	}
+
+	String require(String name) {
+		String value = this.values.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException(String.format("%s needs --%s.", this.command, name));
+		}
+		return value;
+	}
+
+	int getInt(String name, int defaultValue) {
+		String value = this.values.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("--%s must be a number, not '%s'.", name, value));
+		}
+	}
+}
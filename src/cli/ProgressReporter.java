@@ -0,0 +1,120 @@
+package cli;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prints the progress of a bulk task to stderr at a fixed interval: items done,
+ * throughput over the last interval and overall, latency percentiles of the
+ * most recent items, and errors. A final line is printed when it is closed.
+ */
+class ProgressReporter implements Closeable {
+	private static final int SAMPLES = 1024;
+
+	private final String task;
+	private final PrintStream out;
+	private final long intervalMillis;
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong done = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final long[] latencies = new long[SAMPLES];
+	private long samples;
+	private volatile long total = -1;
+	private long lastDone;
+	private long lastNanos = this.startNanos;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * @param out            Where to print, or null to print nothing.
+	 * @param intervalMillis The time between two progress lines.
+	 */
+	ProgressReporter(String task, PrintStream out, long intervalMillis) {
+		this.task = task;
+		this.out = out;
+		this.intervalMillis = intervalMillis;
+	}
+
+	void start() {
+		if (this.out == null) {
+			return;
+		}
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.scheduleAtFixedRate(() -> this.report(false), this.intervalMillis, this.intervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param total The number of items the task will process, when known.
+	 */
+	void setTotal(long total) {
+		this.total = total;
+	}
+
+	void recordSuccess(long nanos) {
+		this.done.incrementAndGet();
+		synchronized (this.latencies) {
+			this.latencies[(int) (this.samples++ % SAMPLES)] = nanos;
+		}
+	}
+
+	void recordError() {
+		this.done.incrementAndGet();
+		this.errors.incrementAndGet();
+	}
+
+	long getErrors() {
+		return this.errors.get();
+	}
+
+	long getDone() {
+		return this.done.get();
+	}
+
+	private synchronized void report(boolean last) {
+		long now = System.nanoTime();
+		long done = this.done.get();
+		double intervalRate = (done - this.lastDone) / Math.max(1e-9, (now - this.lastNanos) / 1e9);
+		double overallRate = done / Math.max(1e-9, (now - this.startNanos) / 1e9);
+		this.lastDone = done;
+		this.lastNanos = now;
+
+		long[] sorted;
+		synchronized (this.latencies) {
+			sorted = Arrays.copyOf(this.latencies, (int) Math.min(this.samples, SAMPLES));
+		}
+		Arrays.sort(sorted);
+		String progress = this.total >= 0 ? done + "/" + this.total : String.valueOf(done);
+		this.out.printf("%s%s: %s done, %.1f/s (%.1f/s overall), p50 %s, p95 %s, p99 %s, %d errors, %.1fs%n",
+				this.task, last ? " finished" : "", progress, last ? overallRate : intervalRate, overallRate,
+				percentile(sorted, 0.5), percentile(sorted, 0.95), percentile(sorted, 0.99), this.errors.get(),
+				(now - this.startNanos) / 1e9);
+	}
+
+	private static String percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return "-";
+		}
+		long nanos = sorted[Math.min(sorted.length - 1, (int) (percentile * sorted.length))];
+		return String.format("%.1fms", nanos / 1e6);
+	}
+
+	@Override
+	public void close() {
+		if (this.out == null) {
+			return;
+		}
+		if (this.timer != null) {
+			this.timer.shutdownNow();
+		}
+		this.report(true);
+	}
+}
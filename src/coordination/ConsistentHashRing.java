@@ -0,0 +1,126 @@
+package coordination;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Maps work keys to workers by hashing both onto the same ring. Every worker is
+ * placed on the ring many times (virtual nodes), so keys spread evenly, and when
+ * a worker joins or leaves only the keys next to its points move; every other
+ * key keeps its owner.
+ *
+ * The ring is a value: two rings built from the same workers assign every key
+ * the same way, on every node, without talking to each other.
+ */
+public class ConsistentHashRing {
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final int virtualNodes;
+	private final TreeMap<Long, String> ring = new TreeMap<>();
+	private final TreeSet<String> workers = new TreeSet<>();
+
+	public ConsistentHashRing(Collection<String> workers) {
+		this(workers, DEFAULT_VIRTUAL_NODES);
+	}
+
+	public ConsistentHashRing(Collection<String> workers, int virtualNodes) {
+		this.virtualNodes = Math.max(1, virtualNodes);
+		for (String worker : workers) {
+			this.add(worker);
+		}
+	}
+
+	private void add(String worker) {
+		if (!this.workers.add(worker)) {
+			return;
+		}
+		for (int i = 0; i < this.virtualNodes; i++) {
+			// On a collision the smaller worker id wins, so the ring does not depend on insertion order.
+			this.ring.merge(hash(worker + "#" + i), worker, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+		}
+	}
+
+	/**
+	 * @return The workers on the ring, sorted.
+	 */
+	public List<String> getWorkers() {
+		return new ArrayList<>(this.workers);
+	}
+
+	public boolean isEmpty() {
+		return this.workers.isEmpty();
+	}
+
+	/**
+	 * @param key The work key.
+	 * @return The worker owning the key, or null if the ring has no workers.
+	 */
+	public String ownerOf(String key) {
+		if (this.ring.isEmpty()) {
+			return null;
+		}
+		SortedMap<Long, String> tail = this.ring.tailMap(hash(key));
+		return tail.isEmpty() ? this.ring.firstEntry().getValue() : tail.get(tail.firstKey());
+	}
+
+	/**
+	 * @return A ring with the same workers and the given worker added.
+	 */
+	public ConsistentHashRing with(String worker) {
+		List<String> workers = this.getWorkers();
+		workers.add(worker);
+		return new ConsistentHashRing(workers, this.virtualNodes);
+	}
+
+	/**
+	 * @return A ring with the same workers and the given worker removed.
+	 */
+	public ConsistentHashRing without(String worker) {
+		List<String> workers = this.getWorkers();
+		workers.remove(worker);
+		return new ConsistentHashRing(workers, this.virtualNodes);
+	}
+
+	/**
+	 * @return The share of ring positions owned by each worker, which is the
+	 *         expected share of keys they own.
+	 */
+	public Map<String, Double> getShares() {
+		Map<String, Double> shares = new TreeMap<>();
+		if (this.ring.isEmpty()) {
+			return shares;
+		}
+		long previous = this.ring.lastKey();
+		for (Map.Entry<Long, String> point : this.ring.entrySet()) {
+			// Unsigned distance wraps correctly around the end of the ring.
+			double span = (double) (point.getKey() - previous);
+			if (span <= 0) {
+				span += Math.pow(2, 64);
+			}
+			shares.merge(point.getValue(), span / Math.pow(2, 64), Double::sum);
+			previous = point.getKey();
+		}
+		return shares;
+	}
+
+	static long hash(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xFF);
+			}
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available.", e);
+		}
+	}
+}
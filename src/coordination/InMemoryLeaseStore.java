@@ -0,0 +1,58 @@
+package coordination;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lease store shared by workers running in the same JVM.
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+	private final Map<String, Lease> leases = new HashMap<>();
+
+	private static class Lease {
+		String workerId;
+		long expiresAt;
+		boolean done;
+	}
+
+	@Override
+	public synchronized boolean claim(String workKey, String workerId, long ttlMillis) {
+		long now = System.currentTimeMillis();
+		Lease lease = this.leases.computeIfAbsent(workKey, k -> new Lease());
+		if (lease.done || (lease.workerId != null && !lease.workerId.equals(workerId) && lease.expiresAt > now)) {
+			return false;
+		}
+		lease.workerId = workerId;
+		lease.expiresAt = now + ttlMillis;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean steal(String workKey, String workerId, long ttlMillis) {
+		return this.leases.containsKey(workKey) && this.claim(workKey, workerId, ttlMillis);
+	}
+
+	@Override
+	public synchronized void complete(String workKey, String workerId) {
+		Lease lease = this.leases.get(workKey);
+		if (lease != null && workerId.equals(lease.workerId)) {
+			lease.done = true;
+		}
+	}
+
+	@Override
+	public synchronized void release(String workKey, String workerId) {
+		Lease lease = this.leases.get(workKey);
+		if (lease != null && !lease.done && workerId.equals(lease.workerId)) {
+			this.leases.remove(workKey);
+		}
+	}
+
+	/**
+	 * @return The worker that holds or completed the key, or null if it is free.
+	 */
+	public synchronized String getHolder(String workKey) {
+		Lease lease = this.leases.get(workKey);
+		return lease == null ? null : lease.workerId;
+	}
+}
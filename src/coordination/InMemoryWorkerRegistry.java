@@ -0,0 +1,30 @@
+package coordination;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A worker registry shared by workers running in the same JVM.
+ */
+public class InMemoryWorkerRegistry implements WorkerRegistry {
+	private final Map<String, Long> expiresAt = new HashMap<>();
+
+	@Override
+	public synchronized void heartbeat(String workerId, long ttlMillis) {
+		this.expiresAt.put(workerId, System.currentTimeMillis() + ttlMillis);
+	}
+
+	@Override
+	public synchronized void leave(String workerId) {
+		this.expiresAt.remove(workerId);
+	}
+
+	@Override
+	public synchronized List<String> getLiveWorkers() {
+		long now = System.currentTimeMillis();
+		this.expiresAt.values().removeIf(expiresAt -> expiresAt <= now);
+		return new ArrayList<>(this.expiresAt.keySet());
+	}
+}
@@ -0,0 +1,40 @@
+package coordination;
+
+import java.io.IOException;
+
+/**
+ * Exclusive, expiring claims on work keys. A lease is held by one worker until
+ * it expires, is released, or is completed. An expired lease may be claimed by
+ * any worker, which is how work held by a crashed or stalled node is stolen; a
+ * completed lease can never be claimed again, so finished work is not redone.
+ */
+public interface LeaseStore {
+	/**
+	 * Claims the key for the worker. The claim succeeds if the key was never
+	 * claimed, its lease expired, or the worker already holds it, in which case the
+	 * lease is renewed.
+	 *
+	 * @return Whether the worker now holds the lease.
+	 */
+	boolean claim(String workKey, String workerId, long ttlMillis) throws IOException;
+
+	/**
+	 * Takes over the key from a worker whose lease expired. Unlike
+	 * {@link #claim(String, String, long)}, this fails for a key that was never
+	 * claimed, so the work of a live worker that has not got to it yet is left to
+	 * that worker.
+	 *
+	 * @return Whether the worker now holds the lease.
+	 */
+	boolean steal(String workKey, String workerId, long ttlMillis) throws IOException;
+
+	/**
+	 * Marks the key as done if the worker holds its lease.
+	 */
+	void complete(String workKey, String workerId) throws IOException;
+
+	/**
+	 * Gives up the worker's lease on the key so that another worker can claim it.
+	 */
+	void release(String workKey, String workerId) throws IOException;
+}
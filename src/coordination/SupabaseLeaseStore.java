@@ -0,0 +1,95 @@
+package coordination;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import sdk.AutograderClient;
+
+/**
+ * Leases kept in a Supabase table, so workers on different nodes can claim work
+ * from each other. Claims go through database functions that compare against
+ * the database clock, which keeps leases correct even when the clocks of the
+ * nodes drift apart:
+ *
+ * <pre>
+ * create table grading_lease (
+ *   work_key text primary key,
+ *   worker_id text not null,
+ *   expires_at timestamptz not null,
+ *   done boolean not null default false
+ * );
+ *
+ * create function claim_lease(work_key text, worker_id text, ttl_millis bigint) returns boolean
+ * language sql volatile as $$
+ *   insert into grading_lease as l (work_key, worker_id, expires_at)
+ *   values (claim_lease.work_key, claim_lease.worker_id, now() + claim_lease.ttl_millis * interval '1 millisecond')
+ *   on conflict (work_key) do update set worker_id = excluded.worker_id, expires_at = excluded.expires_at
+ *   where not l.done and (l.worker_id = excluded.worker_id or l.expires_at &lt; now())
+ *   returning true
+ * $$;
+ *
+ * create function steal_lease(work_key text, worker_id text, ttl_millis bigint) returns boolean
+ * language sql volatile as $$
+ *   update grading_lease l
+ *   set worker_id = steal_lease.worker_id, expires_at = now() + steal_lease.ttl_millis * interval '1 millisecond'
+ *   where l.work_key = steal_lease.work_key and not l.done
+ *   and (l.worker_id = steal_lease.worker_id or l.expires_at &lt; now())
+ *   returning true
+ * $$;
+ *
+ * create function complete_lease(work_key text, worker_id text) returns void
+ * language sql volatile as $$
+ *   update grading_lease l set done = true
+ *   where l.work_key = complete_lease.work_key and l.worker_id = complete_lease.worker_id
+ * $$;
+ *
+ * create function release_lease(work_key text, worker_id text) returns void
+ * language sql volatile as $$
+ *   delete from grading_lease l
+ *   where l.work_key = release_lease.work_key and l.worker_id = release_lease.worker_id and not l.done
+ * $$;
+ * </pre>
+ */
+public class SupabaseLeaseStore implements LeaseStore {
+	private final AutograderClient client;
+
+	/**
+	 * @param client An authenticated client whose user may call the lease
+	 *               functions.
+	 */
+	public SupabaseLeaseStore(AutograderClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public boolean claim(String workKey, String workerId, long ttlMillis) throws IOException {
+		Map<String, Object> parameters = parameters(workKey, workerId);
+		parameters.put("ttl_millis", ttlMillis);
+		return Boolean.TRUE.equals(this.client.callFunction("claim_lease", parameters, Boolean.class));
+	}
+
+	@Override
+	public boolean steal(String workKey, String workerId, long ttlMillis) throws IOException {
+		Map<String, Object> parameters = parameters(workKey, workerId);
+		parameters.put("ttl_millis", ttlMillis);
+		return Boolean.TRUE.equals(this.client.callFunction("steal_lease", parameters, Boolean.class));
+	}
+
+	@Override
+	public void complete(String workKey, String workerId) throws IOException {
+		this.client.callFunction("complete_lease", parameters(workKey, workerId), Void.class);
+	}
+
+	@Override
+	public void release(String workKey, String workerId) throws IOException {
+		this.client.callFunction("release_lease", parameters(workKey, workerId), Void.class);
+	}
+
+	private static Map<String, Object> parameters(String workKey, String workerId) {
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("work_key", workKey);
+		parameters.put("worker_id", workerId);
+		return parameters;
+	}
+}
@@ -0,0 +1,71 @@
+package coordination;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sdk.AutograderClient;
+
+/**
+ * A worker registry kept in a Supabase table, so that workers on different
+ * nodes see the same membership and build the same hash ring. Expiry is checked
+ * against the database clock:
+ *
+ * <pre>
+ * create table grading_worker (
+ *   worker_id text primary key,
+ *   expires_at timestamptz not null
+ * );
+ *
+ * create function heartbeat_worker(worker_id text, ttl_millis bigint) returns void
+ * language sql volatile as $$
+ *   insert into grading_worker (worker_id, expires_at)
+ *   values (heartbeat_worker.worker_id, now() + heartbeat_worker.ttl_millis * interval '1 millisecond')
+ *   on conflict (worker_id) do update set expires_at = excluded.expires_at
+ * $$;
+ *
+ * create function leave_worker(worker_id text) returns void
+ * language sql volatile as $$
+ *   delete from grading_worker w where w.worker_id = leave_worker.worker_id
+ * $$;
+ *
+ * create function live_workers() returns setof text
+ * language sql stable as $$
+ *   select worker_id from grading_worker where expires_at &gt; now() order by worker_id
+ * $$;
+ * </pre>
+ */
+public class SupabaseWorkerRegistry implements WorkerRegistry {
+	private final AutograderClient client;
+
+	public SupabaseWorkerRegistry(AutograderClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public void heartbeat(String workerId, long ttlMillis) throws IOException {
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("worker_id", workerId);
+		parameters.put("ttl_millis", ttlMillis);
+		this.client.callFunction("heartbeat_worker", parameters, Void.class);
+	}
+
+	@Override
+	public void leave(String workerId) throws IOException {
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("worker_id", workerId);
+		this.client.callFunction("leave_worker", parameters, Void.class);
+	}
+
+	@Override
+	public List<String> getLiveWorkers() throws IOException {
+		String[] workers = this.client.callFunction("live_workers", new HashMap<>(), String[].class);
+		if (workers == null) {
+			throw new IOException("Could not list the live grading workers.");
+		}
+		return new ArrayList<>(Arrays.asList(workers));
+	}
+}
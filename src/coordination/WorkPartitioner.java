@@ -0,0 +1,334 @@
+package coordination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import profiles.ProfileResponse;
+
+/**
+ * Splits (profile, assignment) work items between grading workers so that each
+ * item is graded by one node.
+ * <p>
+ * Every worker heartbeats into a shared {@link WorkerRegistry} and builds a
+ * {@link ConsistentHashRing} of the live workers; the ring owner of an item's
+ * key grades it. When a worker joins or leaves, the ring is rebuilt on the next
+ * refresh and only the items next to that worker's ring points change owner.
+ * <p>
+ * Sharding alone is best effort: while workers disagree about membership, an
+ * item can be graded twice or, until the next run, not at all. With a
+ * {@link LeaseStore}, every item is also claimed before it is graded and
+ * completed afterwards, which makes grading exactly once. Leases held by this
+ * worker are renewed in the background, so a slow node keeps its work; the
+ * leases of a node that stopped heartbeating expire and any worker may steal
+ * them.
+ * <p>
+ * Leases are kept per grading round, and a completed lease is never claimed
+ * again in its round, so a worker with a lease store must be given a round
+ * before it starts. Reusing a round regrades nothing; give every run its own,
+ * such as the assignment id and a run id.
+ *
+ * <pre>
+ * try (WorkPartitioner partitioner = new WorkPartitioner("node-1", new SupabaseWorkerRegistry(client))
+ * 		.leases(new SupabaseLeaseStore(client)).round(assignmentId + "/" + runId)) {
+ * 	partitioner.start();
+ * 	GradingPipeline.of(client, classId, assignmentId).partition(partitioner).run(grader);
+ * }
+ * </pre>
+ */
+public class WorkPartitioner implements Closeable {
+	public static final long DEFAULT_TTL_MILLIS = 30_000;
+
+	private final String workerId;
+	private final WorkerRegistry registry;
+	private final long ttlMillis;
+	private LeaseStore leaseStore;
+	private String round;
+	private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.emptyList());
+	// The leases this worker holds, each with a lock that keeps renewing it apart
+	// from completing or releasing it.
+	private final Map<String, Object> heldLeases = new ConcurrentHashMap<>();
+	private final AtomicLong rebalances = new AtomicLong();
+	private final AtomicLong lostLeases = new AtomicLong();
+	private final AtomicLong heartbeatFailures = new AtomicLong();
+	private ScheduledExecutorService heartbeats;
+
+	public WorkPartitioner(String workerId, WorkerRegistry registry) {
+		this(workerId, registry, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param workerId  The id of this worker, unique among the workers.
+	 * @param registry  The registry shared by all workers.
+	 * @param ttlMillis How long the heartbeat and leases of this worker stay
+	 *                  valid. They are renewed every third of it.
+	 */
+	public WorkPartitioner(String workerId, WorkerRegistry registry, long ttlMillis) {
+		this.workerId = workerId;
+		this.registry = registry;
+		this.ttlMillis = Math.max(3, ttlMillis);
+	}
+
+	/**
+	 * @param leaseStore The lease store shared by all workers, or null to rely on
+	 *                   sharding alone.
+	 */
+	public WorkPartitioner leases(LeaseStore leaseStore) {
+		this.leaseStore = leaseStore;
+		return this;
+	}
+
+	/**
+	 * Names the grading round, which is required with a lease store. Completed
+	 * leases are never claimed again within a round, so every run that should
+	 * grade (including a regrade after resubmissions) needs a new round, such as
+	 * the assignment id and a run id. All workers of one run must use the same
+	 * round. Leases of different rounds do not interact.
+	 *
+	 * @param round The name of the round.
+	 */
+	public WorkPartitioner round(String round) {
+		this.round = round;
+		return this;
+	}
+
+	public String getWorkerId() {
+		return this.workerId;
+	}
+
+	public boolean isLeasing() {
+		return this.leaseStore != null;
+	}
+
+	/**
+	 * @return The key identifying a work item on the ring and in the lease store.
+	 */
+	public static String workKey(String profileId, String assignmentId) {
+		return profileId + "/" + assignmentId;
+	}
+
+	private String leaseKey(String profileId, String assignmentId) {
+		return this.round + ":" + workKey(profileId, assignmentId);
+	}
+
+	private void requireRound() {
+		if (this.leaseStore != null && (this.round == null || this.round.isEmpty())) {
+			throw new IllegalStateException(
+					String.format("Worker '%s' leases work items and needs a round.", this.workerId));
+		}
+	}
+
+	/**
+	 * Joins the registry and starts heartbeating, refreshing the ring and renewing
+	 * held leases in the background.
+	 *
+	 * @throws IOException           If the first heartbeat failed, an IOException
+	 *                               is thrown.
+	 * @throws IllegalStateException If there is a lease store but no round.
+	 */
+	public synchronized void start() throws IOException {
+		if (this.heartbeats != null) {
+			return;
+		}
+		this.requireRound();
+		this.registry.heartbeat(this.workerId, this.ttlMillis);
+		this.refresh();
+		this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "work-partitioner-" + this.workerId);
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = this.ttlMillis / 3;
+		this.heartbeats.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void heartbeat() {
+		try {
+			this.registry.heartbeat(this.workerId, this.ttlMillis);
+			this.renewLeases();
+			this.refresh();
+		} catch (Exception e) {
+			// A missed beat is retried on the next one; the ttl covers two misses.
+			this.heartbeatFailures.incrementAndGet();
+		}
+	}
+
+	private void renewLeases() throws IOException {
+		for (Map.Entry<String, Object> lease : this.heldLeases.entrySet()) {
+			String workKey = lease.getKey();
+			synchronized (lease.getValue()) {
+				if (this.heldLeases.containsKey(workKey)
+						&& !this.leaseStore.claim(workKey, this.workerId, this.ttlMillis)) {
+					// Stolen by a worker that saw the lease expire.
+					this.heldLeases.remove(workKey);
+					this.lostLeases.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops heartbeating, releases the leases still held and leaves the registry,
+	 * so the remaining workers take over this worker's share right away.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.heartbeats != null) {
+			this.heartbeats.shutdownNow();
+			this.heartbeats = null;
+		}
+		for (String workKey : this.heldLeases.keySet()) {
+			this.leaseStore.release(workKey, this.workerId);
+		}
+		this.heldLeases.clear();
+		this.registry.leave(this.workerId);
+	}
+
+	/**
+	 * Rebuilds the ring from the live workers if the membership changed.
+	 *
+	 * @return The current ring.
+	 * @throws IOException If the registry could not be read, an IOException is
+	 *                     thrown.
+	 */
+	public ConsistentHashRing refresh() throws IOException {
+		List<String> workers = new ArrayList<>(this.registry.getLiveWorkers());
+		if (this.heartbeats != null && !workers.contains(this.workerId)) {
+			// Our own heartbeat may have just expired; we are still working.
+			workers.add(this.workerId);
+		}
+		Collections.sort(workers);
+		synchronized (this) {
+			if (!workers.equals(this.ring.getWorkers())) {
+				this.ring = new ConsistentHashRing(workers);
+				this.rebalances.incrementAndGet();
+			}
+			return this.ring;
+		}
+	}
+
+	public ConsistentHashRing getRing() {
+		return this.ring;
+	}
+
+	/**
+	 * @return Whether this worker owns the item on the current ring.
+	 */
+	public boolean owns(String profileId, String assignmentId) {
+		return this.workerId.equals(this.ring.ownerOf(workKey(profileId, assignmentId)));
+	}
+
+	/**
+	 * Refreshes the ring and keeps the profiles whose work item this worker owns.
+	 *
+	 * @throws IOException If the registry could not be read, an IOException is
+	 *                     thrown.
+	 */
+	public List<ProfileResponse> assign(List<ProfileResponse> profiles, String assignmentId) throws IOException {
+		this.refresh();
+		List<ProfileResponse> assigned = new ArrayList<>();
+		for (ProfileResponse profile : profiles) {
+			if (this.owns(profile.id, assignmentId)) {
+				assigned.add(profile);
+			}
+		}
+		return assigned;
+	}
+
+	/**
+	 * Claims an item before grading it. Without a lease store this succeeds for
+	 * the items this worker owns on the current ring. With one, it succeeds for
+	 * the owned items that are not done and not leased by another live worker,
+	 * and for the items of other workers whose lease expired, which is how this
+	 * worker steals from slow or crashed ones. The items of a worker that left
+	 * the registry are owned by the remaining workers once the ring is
+	 * refreshed.
+	 *
+	 * @return Whether this worker should grade the item.
+	 * @throws IOException           If the lease store could not be reached, an
+	 *                               IOException is thrown.
+	 * @throws IllegalStateException If there is a lease store but no round.
+	 */
+	public boolean claim(String profileId, String assignmentId) throws IOException {
+		if (this.leaseStore == null) {
+			return this.owns(profileId, assignmentId);
+		}
+		this.requireRound();
+		String workKey = this.leaseKey(profileId, assignmentId);
+		boolean claimed = this.owns(profileId, assignmentId)
+				? this.leaseStore.claim(workKey, this.workerId, this.ttlMillis)
+				: this.leaseStore.steal(workKey, this.workerId, this.ttlMillis);
+		if (claimed) {
+			this.heldLeases.put(workKey, new Object());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether this worker still holds the lease on the item, which is
+	 *         worth checking before publishing the result of a long grade. Always
+	 *         true without a lease store.
+	 */
+	public boolean holds(String profileId, String assignmentId) {
+		return this.leaseStore == null || this.heldLeases.containsKey(this.leaseKey(profileId, assignmentId));
+	}
+
+	/**
+	 * Marks a claimed item as graded, so no worker claims it again.
+	 */
+	public void complete(String profileId, String assignmentId) throws IOException {
+		if (this.leaseStore != null) {
+			String workKey = this.leaseKey(profileId, assignmentId);
+			synchronized (this.lockOf(workKey)) {
+				this.heldLeases.remove(workKey);
+				this.leaseStore.complete(workKey, this.workerId);
+			}
+		}
+	}
+
+	/**
+	 * Gives up a claimed item without grading it, so another worker may claim it.
+	 */
+	public void release(String profileId, String assignmentId) throws IOException {
+		if (this.leaseStore != null) {
+			String workKey = this.leaseKey(profileId, assignmentId);
+			synchronized (this.lockOf(workKey)) {
+				this.heldLeases.remove(workKey);
+				this.leaseStore.release(workKey, this.workerId);
+			}
+		}
+	}
+
+	private Object lockOf(String workKey) {
+		Object lock = this.heldLeases.get(workKey);
+		return lock == null ? new Object() : lock;
+	}
+
+	/**
+	 * @return The number of times the ring changed, including the first build.
+	 */
+	public long getRebalances() {
+		return this.rebalances.get();
+	}
+
+	/**
+	 * @return The number of leases this worker found taken over while renewing
+	 *         them, which means it was too slow to renew in time.
+	 */
+	public long getLostLeases() {
+		return this.lostLeases.get();
+	}
+
+	public long getHeartbeatFailures() {
+		return this.heartbeatFailures.get();
+	}
+}
@@ -0,0 +1,26 @@
+package coordination;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tracks which grading workers are alive. Workers announce themselves with
+ * heartbeats; a worker whose last heartbeat is older than its time to live is
+ * no longer listed, so a crashed node drops out without ever leaving.
+ */
+public interface WorkerRegistry {
+	/**
+	 * Registers the worker, or keeps it registered, for another ttlMillis.
+	 */
+	void heartbeat(String workerId, long ttlMillis) throws IOException;
+
+	/**
+	 * Removes the worker right away.
+	 */
+	void leave(String workerId) throws IOException;
+
+	/**
+	 * @return The ids of the workers whose heartbeat has not expired.
+	 */
+	List<String> getLiveWorkers() throws IOException;
+}
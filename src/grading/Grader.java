@@ -0,0 +1,17 @@
+package grading;
+
+import java.util.Map;
+
+import profiles.ProfileResponse;
+
+/**
+ * The callback used by the grading pipeline. It receives one student and the
+ * contents of the latest version of every file that student submitted, keyed by
+ * file name.
+ *
+ * @param <R> The type of result produced for each student.
+ */
+@FunctionalInterface
+public interface Grader<R> {
+	R grade(ProfileResponse profile, Map<String, String> files) throws Exception;
+}
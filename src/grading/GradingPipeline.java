@@ -0,0 +1,372 @@
+package grading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import assignments.AutograderAssignment;
+import classes.AutograderClass;
+import coordination.WorkPartitioner;
+import profiles.ProfileResponse;
+import sdk.AutograderClient;
+import submissions.AssignmentSubmissionResponse;
+
+/**
+ * Grades every student of an assignment while overlapping network and CPU
+ * work. The pipeline has three stages:
+ * <ol>
+ * <li>list: the students of the class and the latest submission of every
+ * student and file are listed once.</li>
+ * <li>fetch: a pool of fetchers downloads the latest version of every file of
+ * each student.</li>
+ * <li>grade: a pool of graders hands each downloaded work item to the
+ * user-supplied {@link Grader}.</li>
+ * </ol>
+ * The fetch and grade stages are connected by a bounded queue whose capacity is
+ * the prefetch window. When graders fall behind, fetchers block on the queue
+ * instead of downloading further ahead, so memory stays bounded by the window.
+ *
+ * <pre>
+ * Map&lt;String, Integer&gt; scores = GradingPipeline.of(client, classId, assignmentId) //
+ * 		.prefetch(16) //
+ * 		.fetchThreads(4) //
+ * 		.gradeThreads(2) //
+ * 		.run((profile, files) -&gt; score(files));
+ * </pre>
+ *
+ * When the client is shared with interactive callers through a
+ * {@link sdk.RequestScheduler}, pass a view such as
+ * client.withPriority(RequestPriority.BACKGROUND) so the run yields to them.
+ */
+public class GradingPipeline {
+	private static final GradingWorkItem END_OF_WORK = new GradingWorkItem(null, null, null);
+
+	private final AutograderClient client;
+	private final String classId;
+	private final String assignmentId;
+	private int prefetch = 8;
+	private int fetchThreads = 4;
+	private int gradeThreads = Runtime.getRuntime().availableProcessors();
+	private boolean includeIncomplete = false;
+	private WorkPartitioner partitioner;
+	private volatile Map<String, List<AssignmentSubmissionResponse>> latestByProfile;
+	private final StageMetrics listMetrics = new StageMetrics("list");
+	private final StageMetrics fetchMetrics = new StageMetrics("fetch");
+	private final StageMetrics gradeMetrics = new StageMetrics("grade");
+
+	public GradingPipeline(AutograderClient client, String classId, String assignmentId) {
+		this.client = client;
+		this.classId = classId;
+		this.assignmentId = assignmentId;
+	}
+
+	public static GradingPipeline of(AutograderClient client, String classId, String assignmentId) {
+		return new GradingPipeline(client, classId, assignmentId);
+	}
+
+	/**
+	 * @param prefetch The number of downloaded work items allowed to wait for a
+	 *                 grader. Fetchers block once this many are queued.
+	 */
+	public GradingPipeline prefetch(int prefetch) {
+		this.prefetch = Math.max(1, prefetch);
+		return this;
+	}
+
+	public GradingPipeline fetchThreads(int fetchThreads) {
+		this.fetchThreads = Math.max(1, fetchThreads);
+		return this;
+	}
+
+	public GradingPipeline gradeThreads(int gradeThreads) {
+		this.gradeThreads = Math.max(1, gradeThreads);
+		return this;
+	}
+
+	/**
+	 * @param includeIncomplete Whether students missing one of the assignment's
+	 *                          required files are still handed to the grader. By
+	 *                          default they are skipped, matching
+	 *                          getSubmittedStudents.
+	 */
+	public GradingPipeline includeIncomplete(boolean includeIncomplete) {
+		this.includeIncomplete = includeIncomplete;
+		return this;
+	}
+
+	/**
+	 * Grades only this worker's share of the students when several nodes grade
+	 * the same assignment. The students this worker owns on the hash ring are
+	 * fetched first; with leases, the remaining students are then tried as well,
+	 * but only those whose lease expired are stolen, so the shares of live
+	 * workers that have not got to them yet are left alone. Every student is
+	 * claimed before it is fetched and completed after it is graded; students
+	 * without a complete submission are released instead. Completed students are
+	 * skipped for the rest of the partitioner's round, so give each run its own.
+	 *
+	 * @param partitioner A started partitioner, or null to grade every student.
+	 */
+	public GradingPipeline partition(WorkPartitioner partitioner) {
+		this.partitioner = partitioner;
+		return this;
+	}
+
+	/**
+	 * @return The metrics of the list, fetch and grade stages, in that order.
+	 */
+	public List<StageMetrics> getMetrics() {
+		return Arrays.asList(this.listMetrics, this.fetchMetrics, this.gradeMetrics);
+	}
+
+	/**
+	 * Runs the pipeline to completion. The first failure in any stage stops the
+	 * remaining work and is rethrown from this method.
+	 *
+	 * @param grader The callback invoked once per student with submitted files.
+	 * @return The result of the grader for every graded student, keyed by profile
+	 *         id.
+	 * @throws IOException If listing or fetching failed, an IOException is thrown.
+	 */
+	public <R> Map<String, R> run(Grader<R> grader) throws IOException {
+		AutograderAssignment assignment = this.findAssignment();
+		List<ProfileResponse> students = this.listStudents();
+
+		ConcurrentLinkedQueue<ProfileResponse> pending = new ConcurrentLinkedQueue<>(this.order(students));
+		BlockingQueue<GradingWorkItem> ready = new ArrayBlockingQueue<>(this.prefetch);
+		Map<String, R> results = Collections.synchronizedMap(new LinkedHashMap<>());
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		CountDownLatch fetchersDone = new CountDownLatch(this.fetchThreads);
+		CountDownLatch gradersDone = new CountDownLatch(this.gradeThreads);
+
+		ExecutorService fetchers = Executors.newFixedThreadPool(this.fetchThreads);
+		ExecutorService graders = Executors.newFixedThreadPool(this.gradeThreads);
+		this.fetchMetrics.start();
+		this.gradeMetrics.start();
+		try {
+			for (int i = 0; i < this.fetchThreads; i++) {
+				fetchers.execute(() -> {
+					try {
+						ProfileResponse profile;
+						while (failure.get() == null && (profile = pending.poll()) != null) {
+							if (this.partitioner != null && !this.partitioner.claim(profile.id, this.assignmentId)) {
+								continue;
+							}
+							long start = System.nanoTime();
+							GradingWorkItem item = this.fetchClaimed(profile, assignment);
+							if (item == null) {
+								// Nothing to grade yet; leave the student to a later run.
+								this.fetchMetrics.recordItems(0, System.nanoTime() - start);
+								this.release(profile);
+							} else {
+								this.fetchMetrics.recordItem(System.nanoTime() - start);
+								// A full queue is what blocks the put, so sample it before as well.
+								this.gradeMetrics.sampleQueueDepth(ready.size());
+								long blockedStart = System.nanoTime();
+								ready.put(item);
+								this.fetchMetrics.recordBlocked(System.nanoTime() - blockedStart);
+								this.gradeMetrics.sampleQueueDepth(ready.size());
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						this.fetchMetrics.recordError();
+						failure.compareAndSet(null, e);
+					} finally {
+						fetchersDone.countDown();
+					}
+				});
+			}
+
+			for (int i = 0; i < this.gradeThreads; i++) {
+				graders.execute(() -> {
+					try {
+						while (true) {
+							long blockedStart = System.nanoTime();
+							GradingWorkItem item = ready.take();
+							this.gradeMetrics.recordBlocked(System.nanoTime() - blockedStart);
+							if (item == END_OF_WORK) {
+								break;
+							}
+							long start = System.nanoTime();
+							try {
+								results.put(item.profile.id, grader.grade(item.profile, item.files));
+							} catch (Exception e) {
+								this.release(item.profile);
+								throw e;
+							}
+							this.complete(item.profile);
+							this.gradeMetrics.recordItem(System.nanoTime() - start);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						this.gradeMetrics.recordError();
+						failure.compareAndSet(null, e);
+					} finally {
+						gradersDone.countDown();
+					}
+				});
+			}
+
+			this.awaitFetchers(fetchersDone, failure, fetchers, graders);
+			this.fetchMetrics.stop();
+			for (int i = 0; i < this.gradeThreads && failure.get() == null; i++) {
+				// A grader failing while the queue is full would otherwise block this forever.
+				while (failure.get() == null && !ready.offer(END_OF_WORK, 50, TimeUnit.MILLISECONDS)) {
+				}
+			}
+			if (failure.get() != null) {
+				graders.shutdownNow();
+			}
+			gradersDone.await();
+			this.gradeMetrics.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} finally {
+			fetchers.shutdownNow();
+			graders.shutdownNow();
+		}
+
+		Exception e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e != null) {
+			throw new RuntimeException("Grading pipeline failed.", e);
+		}
+		return results;
+	}
+
+	private void awaitFetchers(CountDownLatch fetchersDone, AtomicReference<Exception> failure,
+			ExecutorService fetchers, ExecutorService graders) throws InterruptedException {
+		// Poll so that a failing grader releases fetchers blocked on a full queue.
+		while (!fetchersDone.await(50, TimeUnit.MILLISECONDS)) {
+			if (failure.get() != null) {
+				fetchers.shutdownNow();
+				graders.shutdownNow();
+			}
+		}
+		if (failure.get() != null) {
+			graders.shutdownNow();
+		}
+	}
+
+	private List<ProfileResponse> order(List<ProfileResponse> students) throws IOException {
+		if (this.partitioner == null) {
+			return students;
+		}
+		List<ProfileResponse> ordered = this.partitioner.assign(students, this.assignmentId);
+		if (this.partitioner.isLeasing()) {
+			for (ProfileResponse student : students) {
+				if (!this.partitioner.owns(student.id, this.assignmentId)) {
+					ordered.add(student);
+				}
+			}
+		}
+		return ordered;
+	}
+
+	private GradingWorkItem fetchClaimed(ProfileResponse profile, AutograderAssignment assignment) throws IOException {
+		try {
+			return this.fetch(profile, assignment);
+		} catch (IOException | RuntimeException e) {
+			this.release(profile);
+			throw e;
+		}
+	}
+
+	private void complete(ProfileResponse profile) throws IOException {
+		if (this.partitioner != null) {
+			this.partitioner.complete(profile.id, this.assignmentId);
+		}
+	}
+
+	private void release(ProfileResponse profile) throws IOException {
+		if (this.partitioner != null) {
+			this.partitioner.release(profile.id, this.assignmentId);
+		}
+	}
+
+	private AutograderAssignment findAssignment() throws IOException {
+		AutograderClass autograderClass = this.client.getClass(this.classId);
+		if (autograderClass == null) {
+			throw new RuntimeException(String.format("Class '%s' does not exist.", this.classId));
+		}
+		return Arrays.stream(autograderClass.assignments == null ? new AutograderAssignment[0] : autograderClass.assignments)
+				.filter(assignment -> assignment.id.equals(this.assignmentId)) //
+				.findFirst() //
+				.orElseThrow(() -> new RuntimeException(
+						String.format("Assignment '%s' not in Class '%s'.", this.assignmentId, this.classId)));
+	}
+
+	private List<ProfileResponse> listStudents() throws IOException {
+		this.listMetrics.start();
+		long start = System.nanoTime();
+		List<ProfileResponse> students = this.client.getStudentsInClass(this.classId);
+		List<AssignmentSubmissionResponse> latest = this.client.getLatestSubmissions(this.assignmentId);
+		Map<String, List<AssignmentSubmissionResponse>> latestByProfile = null;
+		if (latest != null) {
+			latestByProfile = new HashMap<>();
+			for (AssignmentSubmissionResponse submission : latest) {
+				latestByProfile.computeIfAbsent(submission.profileId, id -> new ArrayList<>()).add(submission);
+			}
+		}
+		this.latestByProfile = latestByProfile;
+		this.listMetrics.recordItems(students.size(), System.nanoTime() - start);
+		this.listMetrics.stop();
+		return students;
+	}
+
+	private GradingWorkItem fetch(ProfileResponse profile, AutograderAssignment assignment) throws IOException {
+		List<AssignmentSubmissionResponse> submissions;
+		Map<String, List<AssignmentSubmissionResponse>> latestByProfile = this.latestByProfile;
+		if (latestByProfile != null) {
+			// The listing is paged to the end, so a student missing from it has
+			// submitted nothing.
+			submissions = latestByProfile.get(profile.id);
+		} else {
+			// Only when the bulk listing failed is every student looked up.
+			submissions = this.client.getAssignmentSubmissions(profile.id, this.assignmentId);
+		}
+		if (submissions == null || submissions.isEmpty()) {
+			return null;
+		}
+
+		Map<String, AssignmentSubmissionResponse> latest = new HashMap<>();
+		for (AssignmentSubmissionResponse submission : submissions) {
+			latest.merge(submission.fileName, submission,
+					(previous, current) -> previous.version == null
+							|| (current.version != null && current.version > previous.version) ? current : previous);
+		}
+
+		if (!this.includeIncomplete && assignment.required_files != null) {
+			for (String requiredFileName : assignment.required_files) {
+				if (!latest.containsKey(requiredFileName)) {
+					return null;
+				}
+			}
+		}
+
+		Map<String, String> files = new LinkedHashMap<>();
+		for (AssignmentSubmissionResponse submission : latest.values()) {
+			files.put(submission.fileName, this.client.downloadSubmission(profile, submission));
+		}
+		return new GradingWorkItem(profile, new ArrayList<>(latest.values()), files);
+	}
+}
@@ -0,0 +1,179 @@
+package grading;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import assignments.AutograderAssignment;
+import storage.ContentStore;
+
+/**
+ * Remembers grading results by the contents that were graded. The key is the
+ * SHA-256 hash of the name and content hash of every graded file, plus the
+ * grader version, so students who submit identical files (or resubmit an
+ * unchanged version) are graded once. Bump the grader version whenever the
+ * tests change to stop reusing old results.
+ *
+ * Given the assignment, only its required files are graded files, so extra
+ * files a student submitted next to them neither change the key nor have to be
+ * hashed. Without it, every submitted file is.
+ *
+ * Results are kept in memory, and with persist also in a file, so a later run
+ * only grades what changed since.
+ *
+ * <pre>
+ * GradingResultCache&lt;Integer&gt; cache = new GradingResultCache&lt;&gt;("week-one-v2", assignment)
+ * 		.persist(Paths.get("week-one.results"), Integer.class);
+ * pipeline.run(cache.wrap((profile, files) -&gt; score(files)));
+ * </pre>
+ *
+ * @param <R> The type of result produced by the grader.
+ */
+public class GradingResultCache<R> {
+	private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+
+	private final String graderVersion;
+	private final Collection<String> gradedFiles;
+	private final Map<String, R> results = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private Path file;
+
+	public GradingResultCache(String graderVersion) {
+		this(graderVersion, null);
+	}
+
+	/**
+	 * @param graderVersion The version of the grader.
+	 * @param assignment    The assignment whose required files are graded, or null
+	 *                      to key on every submitted file.
+	 */
+	public GradingResultCache(String graderVersion, AutograderAssignment assignment) {
+		this.graderVersion = graderVersion;
+		this.gradedFiles = assignment == null || assignment.required_files == null ? null
+				: new TreeSet<>(Arrays.asList(assignment.required_files));
+	}
+
+	/**
+	 * Keeps the results in a file: the results stored there before are loaded,
+	 * and every new result is appended. Lines that cannot be read, such as one cut
+	 * off by a crash, are skipped, and those students are graded again.
+	 *
+	 * @param file The file to keep the results in.
+	 * @param type The type to read stored results as.
+	 * @throws IOException If the file could not be read, an IOException is
+	 *                     thrown.
+	 */
+	public GradingResultCache<R> persist(Path file, Class<R> type) throws IOException {
+		if (Files.exists(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					int tab = line.indexOf('\t');
+					if (tab > 0) {
+						try {
+							R result = JSON_FACTORY.fromString(line.substring(tab + 1), type);
+							if (result != null) {
+								this.results.put(line.substring(0, tab), result);
+							}
+						} catch (IOException | IllegalArgumentException e) {
+							// Not a result of this type; grade again.
+						}
+					}
+				}
+			}
+		}
+		this.file = file;
+		return this;
+	}
+
+	/**
+	 * @param files The submitted files, keyed by file name.
+	 * @return The cache key for grading these files with this cache's grader
+	 *         version.
+	 */
+	public String key(Map<String, String> files) {
+		StringBuilder key = new StringBuilder(this.graderVersion).append('\n');
+		for (String fileName : this.gradedFiles == null ? new TreeSet<>(files.keySet()) : this.gradedFiles) {
+			String content = files.get(fileName);
+			key.append(fileName).append('\0').append(content == null ? "" : ContentStore.hash(content)).append('\n');
+		}
+		return ContentStore.hash(key.toString());
+	}
+
+	/**
+	 * Wraps a grader so that files graded before skip the grader and return the
+	 * stored result instead. Null results are not cached.
+	 *
+	 * @param grader The grader to wrap.
+	 * @return A grader that consults this cache first.
+	 */
+	public Grader<R> wrap(Grader<R> grader) {
+		return (profile, files) -> {
+			String key = this.key(files);
+			R result = this.results.get(key);
+			if (result != null) {
+				this.hits.incrementAndGet();
+				return result;
+			}
+			this.misses.incrementAndGet();
+			result = grader.grade(profile, files);
+			if (result != null) {
+				this.put(key, result);
+			}
+			return result;
+		};
+	}
+
+	public R get(Map<String, String> files) {
+		return this.results.get(this.key(files));
+	}
+
+	public void put(Map<String, String> files, R result) throws IOException {
+		this.put(this.key(files), result);
+	}
+
+	private void put(String key, R result) throws IOException {
+		this.results.put(key, result);
+		if (this.file != null) {
+			String line = key + "\t" + JSON_FACTORY.toString(result) + "\n";
+			synchronized (this) {
+				Files.write(this.file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+			}
+		}
+	}
+
+	public String getGraderVersion() {
+		return this.graderVersion;
+	}
+
+	public int size() {
+		return this.results.size();
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("version:%s, results:%d, hits:%d, misses:%d", graderVersion, size(), getHits(),
+				getMisses());
+	}
+}
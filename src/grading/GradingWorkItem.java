@@ -0,0 +1,32 @@
+package grading;
+
+import java.util.List;
+import java.util.Map;
+
+import profiles.ProfileResponse;
+import submissions.AssignmentSubmissionResponse;
+
+/**
+ * A single unit of work handed from the fetch stage to the grade stage: a
+ * student, the submission rows that were picked for them and the downloaded
+ * files.
+ */
+public class GradingWorkItem {
+	public final ProfileResponse profile;
+
+	public final List<AssignmentSubmissionResponse> submissions;
+
+	public final Map<String, String> files;
+
+	public GradingWorkItem(ProfileResponse profile, List<AssignmentSubmissionResponse> submissions,
+			Map<String, String> files) {
+		this.profile = profile;
+		this.submissions = submissions;
+		this.files = files;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("profile:%s, files:%s", profile == null ? "<none>" : profile.id, files == null ? "<none>" : files.keySet());
+	}
+}
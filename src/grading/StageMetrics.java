@@ -0,0 +1,102 @@
+package grading;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for one stage of the grading pipeline. Busy time is the time spent
+ * doing the stage's own work, blocked time is the time spent waiting on the
+ * queue between stages (backpressure for producers, starvation for consumers).
+ */
+public class StageMetrics {
+	private final String name;
+	private final AtomicLong items = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+	private final AtomicLong blockedNanos = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private volatile long startNanos;
+	private volatile long endNanos;
+
+	public StageMetrics(String name) {
+		this.name = name;
+	}
+
+	void start() {
+		if (this.startNanos == 0) {
+			this.startNanos = System.nanoTime();
+		}
+	}
+
+	void stop() {
+		this.endNanos = System.nanoTime();
+	}
+
+	void recordItem(long nanos) {
+		this.recordItems(1, nanos);
+	}
+
+	void recordItems(int count, long nanos) {
+		this.items.addAndGet(count);
+		this.busyNanos.addAndGet(nanos);
+	}
+
+	void recordError() {
+		this.errors.incrementAndGet();
+	}
+
+	void recordBlocked(long nanos) {
+		this.blockedNanos.addAndGet(nanos);
+	}
+
+	void sampleQueueDepth(int depth) {
+		this.maxQueueDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public long getItems() {
+		return this.items.get();
+	}
+
+	public long getErrors() {
+		return this.errors.get();
+	}
+
+	public long getBusyMillis() {
+		return this.busyNanos.get() / 1_000_000;
+	}
+
+	public long getBlockedMillis() {
+		return this.blockedNanos.get() / 1_000_000;
+	}
+
+	public int getMaxQueueDepth() {
+		return this.maxQueueDepth.get();
+	}
+
+	public long getElapsedMillis() {
+		if (this.startNanos == 0) {
+			return 0;
+		}
+		long end = this.endNanos == 0 ? System.nanoTime() : this.endNanos;
+		return (end - this.startNanos) / 1_000_000;
+	}
+
+	/**
+	 * @return The number of items completed per second of wall-clock time since the
+	 *         stage started.
+	 */
+	public double getThroughput() {
+		long elapsed = this.getElapsedMillis();
+		return elapsed == 0 ? 0 : this.getItems() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: items:%d, errors:%d, throughput:%.2f/s, busy:%dms, blocked:%dms, maxQueue:%d", name,
+				getItems(), getErrors(), getThroughput(), getBusyMillis(), getBlockedMillis(), getMaxQueueDepth());
+	}
+}
@@ -1,6 +1,7 @@
 package profiles;
 
 import classes.AutograderClass;
+import submissions.AssignmentSubmissionResponse;
 
 import java.util.Arrays;
 
@@ -25,6 +26,10 @@ public class ProfileResponse {
     public AutograderClass singleClass;
     
     public AutograderClass[] classes;
+
+    // Only present when embedded by a composite query, see ClassGraph
+    @Key("submission")
+    public AssignmentSubmissionResponse[] submissions;
     
     @Override
     public String toString() {
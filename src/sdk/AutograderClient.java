@@ -1,13 +1,32 @@
 package sdk;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.google.api.client.http.GenericUrl;
@@ -15,10 +34,12 @@ import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 
@@ -26,10 +47,13 @@ import assignments.AutograderAssignment;
 import authentication.AuthenticationRequest;
 import authentication.AuthenticationResponse;
 import classes.AutograderClass;
+import classes.ClassGraph;
 import enrollments.EnrollmentResponse;
 import profiles.ProfileResponse;
+import storage.ContentStore;
 import storage.SubmissionResponse;
 import submissions.AssignmentSubmissionResponse;
+import submissions.VersionDiff;
 
 /**
  * A client that interacts with the Autograder servers. Internally, this
@@ -43,22 +67,370 @@ import submissions.AssignmentSubmissionResponse;
  * @version 1.0.0
  */
 public class AutograderClient {
-	private final static HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+	private final static ThreadLocal<Deadline> CURRENT_DEADLINE = new ThreadLocal<>();
+	private final static ThreadLocal<Runnable> CURRENT_RELEASE = new ThreadLocal<>();
+	private final static ThreadLocal<HttpURLConnection> CURRENT_CONNECTION = new ThreadLocal<>();
+	private final static CompressionStats COMPRESSION_STATS = new CompressionStats();
+	private final static HttpTransport HTTP_TRANSPORT = new NetHttpTransport.Builder() //
+			.setConnectionFactory(url -> {
+				HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+				// Lets an expired or cancelled deadline close the socket of a request in flight.
+				Deadline deadline = CURRENT_DEADLINE.get();
+				Runnable unregister = deadline == null ? null : deadline.onCancel(connection::disconnect);
+				Runnable release = CURRENT_RELEASE.get();
+				String endpoint = endpointOf(url.getPath());
+				MeteredConnection metered = new MeteredConnection(connection, COMPRESSION_STATS, endpoint,
+						Operation.current().trace(url, endpoint), () -> {
+							if (unregister != null) {
+								unregister.run();
+							}
+							if (release != null) {
+								release.run();
+							}
+						});
+				if (deadline != null) {
+					CURRENT_CONNECTION.set(metered);
+				}
+				return metered;
+			}) //
+			.build();
 	private final static JsonFactory JSON_FACTORY = new JacksonFactory();
+	// Runs the independent storage lookups of a single call side by side.
+	private final static ExecutorService LOOKUPS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "autograder-lookup");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final static int LATEST_SUBMISSIONS_PAGE_SIZE = 1000;
+	private final static Comparator<AssignmentSubmissionResponse> BY_PROFILE_AND_FILE = Comparator
+			.comparing((AssignmentSubmissionResponse submission) -> submission.profileId,
+					Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(submission -> submission.fileName, Comparator.nullsFirst(Comparator.naturalOrder()));
+	// Queries sent once per student (or per file) are compiled once.
+	private final static QueryTemplate PROFILE_ENROLLMENTS = RestQueryBuilder.from("enrollment") //
+			.select("*,class(*),profile(*))") //
+			.equalsParameter("profile_id", String.class) //
+			.compile();
+	private final static QueryTemplate CLASS_ENROLLMENTS = RestQueryBuilder.from("enrollment") //
+			.select("*, profile(*), class(*)") //
+			.equalsParameter("class_id", String.class) //
+			.compile();
+	private final static QueryTemplate CLASS_STUDENT_ENROLLMENTS = RestQueryBuilder.from("enrollment") //
+			.select("*, profile(*), class(*)") //
+			.equalsParameter("class_id", String.class) //
+			.equals("type", "student") //
+			.compile();
+	private final static QueryTemplate STUDENT_SUBMISSIONS = RestQueryBuilder.from("submission") //
+			.select("*") //
+			.equalsParameter("assignment_id", String.class) //
+			.equalsParameter("profile_id", String.class) //
+			.compile();
+	private final static QueryTemplate STUDENT_SUBMISSION = RestQueryBuilder.from("submission") //
+			.select("*") //
+			.equalsParameter("assignment_id", String.class) //
+			.equalsParameter("profile_id", String.class) //
+			.equalsParameter("version", Integer.class) //
+			.equalsParameter("file_name", String.class) //
+			.compile();
+	private final static QueryTemplate LATEST_VERSION = RestQueryBuilder.from("submission") //
+			.select("version") //
+			.equalsParameter("assignment_id", String.class) //
+			.equalsParameter("profile_id", String.class) //
+			.order("version", false) //
+			.limit(1) //
+			.compile();
+	private final static QueryTemplate LATEST_FILE_VERSION = RestQueryBuilder.from("submission") //
+			.select("version") //
+			.equalsParameter("assignment_id", String.class) //
+			.equalsParameter("profile_id", String.class) //
+			.equalsParameter("file_name", String.class) //
+			.order("version", false) //
+			.limit(1) //
+			.compile();
+	private final static QueryTemplate CLASS_WITH_ASSIGNMENTS = RestQueryBuilder.from("class") //
+			.select("*, assignment(*)") //
+			.equalsParameter("id", String.class) //
+			.compile();
 	private final String supabaseBaseUrl;
+	private final GenericUrl baseUrl;
 	private final String supabaseAnonKey;
 	private String accessToken;
 	private HttpRequestFactory requestFactory;
+	private ContentStore contentStore;
+	private HedgingPolicy hedgingPolicy;
+	private volatile boolean latestSubmissionsRpcMissing;
+	private Deadline deadline;
+	private TenantQuotas tenantQuotas;
+	private boolean compressionEnabled = true;
+	private volatile String[] identity;
+	private long slowCallNanos = -1;
+	private RequestScheduler requestScheduler;
+	private RequestPriority priority;
 
 	public AutograderClient(String supabaseBaseUrl, String supabaseAnonKey) {
 		this.supabaseBaseUrl = supabaseBaseUrl;
+		this.baseUrl = new GenericUrl(supabaseBaseUrl);
 		this.supabaseAnonKey = supabaseAnonKey;
 		this.accessToken = supabaseAnonKey;
 		this.requestFactory = HTTP_TRANSPORT.createRequestFactory(request -> {
-			request.setParser(new JsonObjectParser(JSON_FACTORY));
+			request.setParser(new RowCountingParser(new JsonObjectParser(JSON_FACTORY)));
 		});
 	}
 
+	private AutograderClient(AutograderClient client) {
+		this.supabaseBaseUrl = client.supabaseBaseUrl;
+		this.baseUrl = client.baseUrl;
+		this.supabaseAnonKey = client.supabaseAnonKey;
+		this.accessToken = client.accessToken;
+		this.requestFactory = client.requestFactory;
+		this.contentStore = client.contentStore;
+		this.hedgingPolicy = client.hedgingPolicy;
+		this.latestSubmissionsRpcMissing = client.latestSubmissionsRpcMissing;
+		this.deadline = client.deadline;
+		this.tenantQuotas = client.tenantQuotas;
+		this.compressionEnabled = client.compressionEnabled;
+		this.slowCallNanos = client.slowCallNanos;
+		this.requestScheduler = client.requestScheduler;
+		this.priority = client.priority;
+	}
+
+	/**
+	 * Logs every call of a public method that takes longer than the threshold, as
+	 * a warning to the java.util.logging logger named after this class. The log
+	 * line sums up the call and lists each request with its path and query string;
+	 * the apikey and Authorization headers are never logged, and query parameters
+	 * that can carry credentials are redacted.
+	 * 
+	 * Independently of this, every call and request is recorded as a Flight
+	 * Recorder event ({@link OperationEvent}, {@link HttpRequestEvent}) while a
+	 * recording has them enabled, for example with
+	 * -XX:StartFlightRecording:settings=profile. With neither enabled, calls are
+	 * not measured at all.
+	 * 
+	 * @param threshold The duration above which calls are logged, or a negative
+	 *                  number to disable the log.
+	 */
+	public void setSlowCallThreshold(long threshold, TimeUnit unit) {
+		this.slowCallNanos = threshold < 0 ? -1 : unit.toNanos(threshold);
+	}
+
+	/**
+	 * @return The slow-call threshold in milliseconds, or -1 if disabled.
+	 */
+	public long getSlowCallThresholdMillis() {
+		return this.slowCallNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(this.slowCallNanos);
+	}
+
+	/**
+	 * The body of a public method, run as one traced operation.
+	 */
+	private interface Call<T> {
+		T call() throws IOException;
+	}
+
+	@SuppressWarnings("try")
+	private <T> T traced(String name, Call<T> call) throws IOException {
+		try (Operation operation = Operation.begin(name, this.slowCallNanos)) {
+			return call.call();
+		}
+	}
+
+	/**
+	 * Sets whether responses may be gzip compressed. Compression is enabled by
+	 * default; PostgREST responses repeat embedded objects on every row and source
+	 * files compress well, so it usually cuts the transferred bytes several times
+	 * over for a little CPU. Compressed bodies are decoded as they stream into the
+	 * JSON parser or the caller.
+	 * 
+	 * @param compressionEnabled Whether to send Accept-Encoding: gzip.
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	public boolean isCompressionEnabled() {
+		return this.compressionEnabled;
+	}
+
+	/**
+	 * @return The bytes received on the wire and after decoding, per endpoint, for
+	 *         every client in this JVM.
+	 */
+	public static CompressionStats getCompressionStats() {
+		return COMPRESSION_STATS;
+	}
+
+	/**
+	 * Returns a session of this client for another user. Sessions are lightweight:
+	 * they share the transport and its connection pool, the caches and the
+	 * policies of this client, but carry their own access token, so many users can
+	 * be served at once without their tokens ever mixing. Cached storage objects
+	 * are partitioned by the user id in the token.
+	 * 
+	 * @param accessToken The access token of the user, as returned by
+	 *                    authentication.
+	 * @return A client acting as that user.
+	 */
+	public AutograderClient session(String accessToken) {
+		AutograderClient session = new AutograderClient(this);
+		session.accessToken = accessToken;
+		return session;
+	}
+
+	/**
+	 * Authenticates a user and returns a session for them, without changing the
+	 * access token of this client.
+	 * 
+	 * @param email    The email of the account to authenticate as.
+	 * @param password The password of the account to authenticate as.
+	 * @return A client acting as the user, or null if authentication failed.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public AutograderClient openSession(String email, String password) throws IOException {
+		AutograderClient session = this.session(this.supabaseAnonKey);
+		return session.authenticateUser(email, password) != null ? session : null;
+	}
+
+	/**
+	 * Routes every request through a scheduler that bounds the requests in flight
+	 * and shares them between priority classes and tenants, across all sessions
+	 * and views created from this client afterwards.
+	 * 
+	 * @param requestScheduler The scheduler to use, or null to send requests
+	 *                         right away.
+	 */
+	public void setRequestScheduler(RequestScheduler requestScheduler) {
+		this.requestScheduler = requestScheduler;
+	}
+
+	public RequestScheduler getRequestScheduler() {
+		return this.requestScheduler;
+	}
+
+	/**
+	 * Returns a view of this client whose requests are scheduled with the given
+	 * priority. Without one, requests made while streaming pages are bulk and all
+	 * others are interactive.
+	 * 
+	 * @param priority The priority of the view's requests.
+	 * @return A client sharing this client's session and settings.
+	 */
+	public AutograderClient withPriority(RequestPriority priority) {
+		AutograderClient view = new AutograderClient(this);
+		view.priority = priority;
+		return view;
+	}
+
+	public RequestPriority getPriority() {
+		return this.priority == null ? RequestPriority.INTERACTIVE : this.priority;
+	}
+
+	/**
+	 * Limits how many requests each user may have in flight at once, across all
+	 * sessions created from this client afterwards.
+	 * 
+	 * @param tenantQuotas The quotas to apply, or null to remove them.
+	 */
+	public void setTenantQuotas(TenantQuotas tenantQuotas) {
+		this.tenantQuotas = tenantQuotas;
+	}
+
+	public TenantQuotas getTenantQuotas() {
+		return this.tenantQuotas;
+	}
+
+	/**
+	 * @return The RLS identity of the access token: the user id (sub claim) of an
+	 *         authenticated user, or the role of the anonymous key.
+	 */
+	String getIdentity() {
+		String token = this.accessToken;
+		String[] identity = this.identity;
+		if (identity == null || !Objects.equals(identity[0], token)) {
+			identity = new String[] { token, identityOf(token) };
+			this.identity = identity;
+		}
+		return identity[1];
+	}
+
+	private static String identityOf(String token) {
+		if (token == null) {
+			return "none";
+		}
+		String[] parts = token.split("\\.");
+		if (parts.length == 3) {
+			try {
+				String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+				Map<?, ?> claims = JSON_FACTORY.fromString(payload, Map.class);
+				if (claims.get("sub") != null) {
+					return "user:" + claims.get("sub");
+				} else if (claims.get("role") != null) {
+					return "role:" + claims.get("role");
+				}
+			} catch (IllegalArgumentException | IOException e) {
+				// Not a JWT we can read, fall back to the token itself.
+			}
+		}
+		return "token:" + ContentStore.hash(token);
+	}
+
+	/**
+	 * Returns a view of this client whose operations all run under the given
+	 * deadline. Every request of an operation, including each step of composite
+	 * methods like downloadFile or getSubmittedStudents, checks the deadline
+	 * before it is sent and gets the remaining budget as its connect and read
+	 * timeouts. Once the deadline expires or is cancelled, in-flight requests are
+	 * disconnected and the operation fails with a DeadlineExceededException, or
+	 * with the IOException of the aborted read if a response body was being
+	 * parsed at that moment.
+	 * 
+	 * The view shares the transport, access token, caches and policies this
+	 * client has when the view is created.
+	 * 
+	 * @param deadline The deadline for the operations of the view.
+	 * @return A client bound to the deadline.
+	 */
+	public AutograderClient withDeadline(Deadline deadline) {
+		AutograderClient view = new AutograderClient(this);
+		view.deadline = deadline;
+		return view;
+	}
+
+	/**
+	 * Enables the content-hash layer for storage downloads. Once set, every file
+	 * downloaded through downloadFile or downloadSubmission is kept in the store.
+	 * A submission's storage object never changes, so later downloads of it are
+	 * served from the store without a request; downloadFile also skips looking up
+	 * the profile and the submission for a version it downloaded before. Open the
+	 * store on a directory (ContentStore.open) to keep it across runs.
+	 * 
+	 * @param contentStore The store to keep downloaded files in, or null to
+	 *                     disable it.
+	 */
+	public void setContentStore(ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
+
+	public ContentStore getContentStore() {
+		return this.contentStore;
+	}
+
+	/**
+	 * Enables hedging of idempotent requests (all GET requests to the database and
+	 * to storage). See HedgingPolicy for how and when requests are hedged.
+	 * 
+	 * @param hedgingPolicy The policy to hedge requests with, or null to disable
+	 *                      hedging.
+	 */
+	public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
+	}
+
+	public HedgingPolicy getHedgingPolicy() {
+		return this.hedgingPolicy;
+	}
+
 	/**
 	 * Authenticates the user and stores the access token for future calls. Other
 	 * methods can be accessed without calling this method first, however, this
@@ -74,19 +446,19 @@ public class AutograderClient {
 	 *                     IOException is thrown.
 	 */
 	public AuthenticationResponse authenticateUser(String email, String password) throws IOException {
-		HttpRequestFactory requestFactory = HTTP_TRANSPORT.createRequestFactory(request -> {
-			request.setParser(new JsonObjectParser(JSON_FACTORY));
-		});
+		return this.traced("authenticateUser", () -> this.doAuthenticateUser(email, password));
+	}
 
+	private AuthenticationResponse doAuthenticateUser(String email, String password) throws IOException {
 		AuthenticationUrl url = new AuthenticationUrl(this.supabaseBaseUrl + "/auth/v1/token");
 		url.grant_type = "password";
 
-		HttpRequest request = requestFactory.buildPostRequest(url,
+		HttpRequest request = this.requestFactory.buildPostRequest(url,
 				new JsonHttpContent(JSON_FACTORY, new AuthenticationRequest(email, password)));
 
 		HttpHeaders headers = request.getHeaders();
 		headers.set("apikey", this.supabaseAnonKey);
-		HttpResponse httpResponse = request.execute();
+		HttpResponse httpResponse = this.execute(request);
 		if (httpResponse.isSuccessStatusCode()) {
 			AuthenticationResponse authenticationResponse = httpResponse.parseAs(AuthenticationResponse.class);
 			this.accessToken = authenticationResponse.access_token;
@@ -110,16 +482,16 @@ public class AutograderClient {
 	 *                     TESTED
 	 */
 	public ProfileResponse getUserProfile(String userId) throws IOException {
+		return this.traced("getUserProfile", () -> this.doGetUserProfile(userId));
+	}
+
+	private ProfileResponse doGetUserProfile(String userId) throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
 
-		String queryString = RestQueryBuilder.from("enrollment")//
-				.select("*,class(*),profile(*))") // if we want assignments, change to: "*,class(*, assignment(*)),profile(*))"
-				.equals("profile_id", userId) //
-				.generateQuery();
-
-		HttpResponse httpResponse = this.createGetRequest(queryString).execute();
+		// If we want assignments, change the select of PROFILE_ENROLLMENTS to: "*,class(*, assignment(*)),profile(*))"
+		HttpResponse httpResponse = this.executeGet(PROFILE_ENROLLMENTS, userId);
 		if (httpResponse.isSuccessStatusCode()) {
 			EnrollmentResponse[] enrollments = httpResponse.parseAs(EnrollmentResponse[].class);
 			if (enrollments.length > 0) {
@@ -145,7 +517,7 @@ public class AutograderClient {
 	 *                     TESTED
 	 */
 	public List<ProfileResponse> getStudentsInClass(String classId) throws IOException {
-		return getUserProfilesInClass(classId, true);
+		return this.traced("getStudentsInClass", () -> getUserProfilesInClass(classId, true));
 	}
 
 	/**
@@ -161,20 +533,14 @@ public class AutograderClient {
 	 *                     TESTED
 	 */
 	public List<ProfileResponse> getUserProfilesInClass(String classId, boolean studentsOnly) throws IOException {
-		if (this.accessToken != null) {
-			RestQueryBuilder queryBuilder = RestQueryBuilder.from("enrollment") //
-					.select("*, profile(*), class(*)") // If we want assignments change to: "*, profile(8), class(*, assignment(*))"
-					.equals("class_id", classId);
-
-			if (studentsOnly) {
-				queryBuilder = queryBuilder.equals("type", "student");
-			}
-
-			String queryString = queryBuilder.generateQuery();
-
-			HttpRequest request = this.createGetRequest(queryString);
+		return this.traced("getUserProfilesInClass", () -> this.doGetUserProfilesInClass(classId, studentsOnly));
+	}
 
-			HttpResponse httpResponse = request.execute();
+	private List<ProfileResponse> doGetUserProfilesInClass(String classId, boolean studentsOnly) throws IOException {
+		if (this.accessToken != null) {
+			// If we want assignments change the select to: "*, profile(8), class(*, assignment(*))"
+			HttpResponse httpResponse = this.executeGet(studentsOnly ? CLASS_STUDENT_ENROLLMENTS : CLASS_ENROLLMENTS,
+					classId);
 			if (httpResponse.isSuccessStatusCode()) {
 				EnrollmentResponse[] enrollments = httpResponse.parseAs(EnrollmentResponse[].class);
 				return this.enrollments2profiles(enrollments);
@@ -183,6 +549,118 @@ public class AutograderClient {
 		return new ArrayList<>();
 	}
 
+	/**
+	 * Streams the profiles of a class page by page, so that exporting a large
+	 * roster never holds more than one page in memory. Each profile lists only
+	 * this class. Pages are fetched lazily while iterating; a failed page is
+	 * rethrown as an UncheckedIOException.
+	 * 
+	 * @param classId      The id of the class to use when retrieving associated
+	 *                     profiles.
+	 * @param studentsOnly Whether the profiles of teachers should be left out.
+	 * @param pageSize     The number of profiles fetched per request.
+	 * @return The profiles of the class, or an empty list if the client has no
+	 *         access token.
+	 */
+	public Iterable<ProfileResponse> streamUserProfilesInClass(String classId, boolean studentsOnly, int pageSize) {
+		if (this.accessToken == null) {
+			return new ArrayList<>();
+		}
+
+		AutograderClient client = this.priority == null ? this.withPriority(RequestPriority.BULK) : this;
+		return new PagedQuery<>(last -> {
+			// A profile is enrolled in a class once, so the profile id is the key of a page.
+			RestQueryBuilder queryBuilder = RestQueryBuilder.from("enrollment") //
+					.select("*, profile(*), class(*)") //
+					.equals("class_id", classId) //
+					.order("profile_id", true);
+			if (last != null) {
+				queryBuilder = queryBuilder.greaterThan("profile_id", last.id);
+			}
+			return studentsOnly ? queryBuilder.equals("type", "student") : queryBuilder;
+		}, queryString -> this.traced("streamUserProfilesInClass", () -> {
+			EnrollmentResponse[] enrollments = client.executeGet(queryString).parseAs(EnrollmentResponse[].class);
+			ProfileResponse[] profiles = new ProfileResponse[enrollments.length];
+			for (int i = 0; i < enrollments.length; i++) {
+				profiles[i] = enrollments[i].profile;
+				profiles[i].classes = new AutograderClass[] { enrollments[i].singleClass };
+			}
+			return profiles;
+		}), pageSize);
+	}
+
+	/**
+	 * Streams every submission row of an assignment page by page, ordered by id.
+	 * Each page is queried for the ids after the last one seen, so long streams
+	 * stay cheap to page through.
+	 * Pages are fetched lazily while iterating; a failed page is rethrown as an
+	 * UncheckedIOException.
+	 * 
+	 * @param assignmentId The id of the assignment.
+	 * @param pageSize     The number of rows fetched per request.
+	 * @return The submissions of the assignment, or an empty list if the client
+	 *         has no access token.
+	 */
+	public Iterable<AssignmentSubmissionResponse> streamAssignmentSubmissions(String assignmentId, int pageSize) {
+		if (this.accessToken == null) {
+			return new ArrayList<>();
+		}
+
+		AutograderClient client = this.priority == null ? this.withPriority(RequestPriority.BULK) : this;
+		return new PagedQuery<>(last -> {
+			RestQueryBuilder queryBuilder = RestQueryBuilder.from("submission") //
+					.select("*") //
+					.equals("assignment_id", assignmentId) //
+					.order("id", true);
+			return last == null ? queryBuilder : queryBuilder.greaterThan("id", last.id);
+		}, queryString -> this.traced("streamAssignmentSubmissions",
+						() -> client.executeGet(queryString).parseAs(AssignmentSubmissionResponse[].class)), pageSize);
+	}
+
+	/**
+	 * Streams the submission rows of an assignment created at or after a point in
+	 * time, oldest first, for incrementally mirroring new submissions. The bound
+	 * is inclusive because rows with the same created_at can commit after the
+	 * previous stream ended; rows at exactly the timestamp are streamed again, and
+	 * callers skip the ids they already have. Each row embeds
+	 * the id, email and auth id of its profile, so the file can be downloaded with
+	 * downloadSubmission without looking the profile up. Pages are fetched lazily
+	 * while iterating; a failed page is rethrown as an UncheckedIOException.
+	 * 
+	 * @param assignmentId The id of the assignment.
+	 * @param createdSince The created_at timestamp of the last row seen before, or
+	 *                     null for every row.
+	 * @param pageSize     The number of rows fetched per request.
+	 * @return The submissions created at or after the timestamp, or an empty list
+	 *         if the client has no access token.
+	 */
+	public Iterable<AssignmentSubmissionResponse> streamAssignmentSubmissions(String assignmentId, String createdSince,
+			int pageSize) {
+		if (this.accessToken == null) {
+			return new ArrayList<>();
+		}
+
+		AutograderClient client = this.priority == null ? this.withPriority(RequestPriority.BULK) : this;
+		return new PagedQuery<>(last -> {
+			RestQueryBuilder queryBuilder = RestQueryBuilder.from("submission") //
+					.select("*,profile(id,email,auth_id)") //
+					.equals("assignment_id", assignmentId) //
+					.order("created_at", true) //
+					.order("id", true);
+			if (createdSince != null) {
+				queryBuilder = queryBuilder.greaterThanOrEquals("created_at", createdSince);
+			}
+			if (last != null) {
+				// Timestamps are not unique, so pages are keyed by (created_at, id).
+				String createdAt = "\"" + last.created_at + "\"";
+				queryBuilder = queryBuilder.or("created_at.gt." + createdAt,
+						"and(created_at.eq." + createdAt + ",id.gt." + last.id + ")");
+			}
+			return queryBuilder;
+		}, queryString -> this.traced("streamAssignmentSubmissions",
+				() -> client.executeGet(queryString).parseAs(AssignmentSubmissionResponse[].class)), pageSize);
+	}
+
 	/**
 	 * @param profileId
 	 * @param assignmentId
@@ -193,17 +671,16 @@ public class AutograderClient {
 	 */
 	public List<AssignmentSubmissionResponse> getAssignmentSubmissions(String profileId, String assignmentId)
 			throws IOException {
+		return this.traced("getAssignmentSubmissions", () -> this.doGetAssignmentSubmissions(profileId, assignmentId));
+	}
+
+	private List<AssignmentSubmissionResponse> doGetAssignmentSubmissions(String profileId, String assignmentId)
+			throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
 
-		RestQueryBuilder queryBuilder = RestQueryBuilder.from("submission") //
-				.select("*") //
-				.equals("assignment_id", assignmentId) //
-				.equals("profile_id", profileId);
-		String queryString = queryBuilder.generateQuery();
-
-		HttpResponse httpResponse = this.createGetRequest(queryString).execute();
+		HttpResponse httpResponse = this.executeGet(STUDENT_SUBMISSIONS, assignmentId, profileId);
 		if (httpResponse.isSuccessStatusCode()) {
 			AssignmentSubmissionResponse[] submissions = httpResponse.parseAs(AssignmentSubmissionResponse[].class);
 			return Arrays.asList(submissions);
@@ -224,19 +701,16 @@ public class AutograderClient {
 	 */
 	public AssignmentSubmissionResponse getAssignmentSubmission(String profileId, String assignmentId, Integer version,
 			String fileName) throws IOException {
+		return this.traced("getAssignmentSubmission",
+				() -> this.doGetAssignmentSubmission(profileId, assignmentId, version, fileName));
+	}
+
+	private AssignmentSubmissionResponse doGetAssignmentSubmission(String profileId, String assignmentId,
+			Integer version, String fileName) throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
-		RestQueryBuilder queryBuilder = RestQueryBuilder.from("submission").select("*") //
-				.equals("assignment_id", assignmentId) //
-				.equals("profile_id", profileId) // ;
-				.equals("version", version) // ;
-				.equals("file_name", fileName);
-
-		String queryString = queryBuilder.generateQuery();
-
-		HttpRequest request = this.createGetRequest(queryString);
-		HttpResponse httpResponse = request.execute();
+		HttpResponse httpResponse = this.executeGet(STUDENT_SUBMISSION, assignmentId, profileId, version, fileName);
 		if (httpResponse.isSuccessStatusCode()) {
 			AssignmentSubmissionResponse[] submissions = httpResponse.parseAs(AssignmentSubmissionResponse[].class);
 			return submissions.length > 0 ? submissions[0] : null;
@@ -259,6 +733,10 @@ public class AutograderClient {
 	 *                     TESTED
 	 */
 	public List<ProfileResponse> getSubmittedStudents(String classId, String assignmentId) throws IOException {
+		return this.traced("getSubmittedStudents", () -> this.doGetSubmittedStudents(classId, assignmentId));
+	}
+
+	private List<ProfileResponse> doGetSubmittedStudents(String classId, String assignmentId) throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
@@ -301,6 +779,12 @@ public class AutograderClient {
 	 */
 	public List<SubmissionResponse> getSubmittedVersionsForAssignment(String studentId, String assignmentId)
 			throws IOException {
+		return this.traced("getSubmittedVersionsForAssignment",
+				() -> this.doGetSubmittedVersionsForAssignment(studentId, assignmentId));
+	}
+
+	private List<SubmissionResponse> doGetSubmittedVersionsForAssignment(String studentId, String assignmentId)
+			throws IOException {
 		return this.getAssignmentSubmissions(studentId, assignmentId) //
 				.stream() //
 				.map(s -> {
@@ -318,76 +802,155 @@ public class AutograderClient {
 
 	/**
 	 * Gets the latest version submitted by the student for the assignment with the
-	 * given id. This is a helper method which internally gets all the submitted
-	 * versions and performs the filter internally.
+	 * given id. The server orders the submissions by version and returns only the
+	 * highest one.
 	 * 
 	 * @param studentId    The id of the student.
 	 * @param assignmentId The id of the assignment for which the student submitted
 	 *                     files for.
-	 * @return The highest version submitted by the student for this assignment.
+	 * @return The highest version submitted by the student for this assignment, or
+	 *         null if the student has not submitted anything.
 	 * @throws IOException If the request could not be successfully sent, an
 	 *                     IOException is thrown.
 	 *
 	 *                     TESTED
 	 */
 	public String getLatestSubmittedVersion(String studentId, String assignmentId) throws IOException {
-
-		String queryString = RestQueryBuilder.from("submission") //
-				.select("*") //
-				.equals("assignment_id", assignmentId) //
-				.equals("profile_id", studentId).generateQuery();
-
-		HttpResponse httpResponse = this.createGetRequest(queryString).execute();
-		if (httpResponse.isSuccessStatusCode()) {
-			List<AssignmentSubmissionResponse> submissions = Arrays
-					.asList(httpResponse.parseAs(AssignmentSubmissionResponse[].class));
-			Integer max = submissions.stream() //
-					.mapToInt(s -> s.version) //
-					.max() //
-					.getAsInt();
-			return "v" + max;
-		}
-
-		return null;
+		return this.getLatestSubmittedVersion(studentId, assignmentId, null);
 	}
 
 	/**
 	 * Gets the latest version submitted by the student for the assignment with the
-	 * given id. This is a helper method which internally gets all the submitted
-	 * versions and performs the filter internally.
+	 * given id. The server orders the submissions by version and returns only the
+	 * highest one.
 	 * 
 	 * @param studentId    The id of the student.
 	 * @param assignmentId The id of the assignment for which the student submitted
 	 *                     files for.
-	 * @return The highest version submitted by the student for this assignment.
+	 * @param fileName     The name of the file to look at, or null for any file.
+	 * @return The highest version submitted by the student for this assignment, or
+	 *         null if the student has not submitted the file.
 	 * @throws IOException If the request could not be successfully sent, an
 	 *                     IOException is thrown.
 	 * 
 	 *                     TESTED
 	 */
 	public String getLatestSubmittedVersion(String studentId, String assignmentId, String fileName) throws IOException {
+		return this.traced("getLatestSubmittedVersion",
+				() -> this.doGetLatestSubmittedVersion(studentId, assignmentId, fileName));
+	}
 
-		String queryString = RestQueryBuilder.from("submission") //
-				.select("*") //
-				.equals("assignment_id", assignmentId) //
-				.equals("profile_id", studentId) //
-				.equals("file_name", fileName) //
-				.generateQuery();
-
-		HttpResponse httpResponse = this.createGetRequest(queryString).execute();
+	private String doGetLatestSubmittedVersion(String studentId, String assignmentId, String fileName)
+			throws IOException {
+		HttpResponse httpResponse = fileName == null //
+				? this.executeGet(LATEST_VERSION, assignmentId, studentId)
+				: this.executeGet(LATEST_FILE_VERSION, assignmentId, studentId, fileName);
 		if (httpResponse.isSuccessStatusCode()) {
-			List<AssignmentSubmissionResponse> submissions = Arrays
-					.asList(httpResponse.parseAs(AssignmentSubmissionResponse[].class));
-			Integer max = submissions.stream() //
-					.mapToInt(s -> s.version) //
-					.max() //
-					.getAsInt();
-			return "v" + max;
+			AssignmentSubmissionResponse[] submissions = httpResponse.parseAs(AssignmentSubmissionResponse[].class);
+			return submissions.length > 0 ? "v" + submissions[0].version : null;
 		}
 
 		return null;
 	}
 
+	/**
+	 * Gets the latest version of every file submitted by every student for an
+	 * assignment, in a few paged requests. The server resolves the latest versions
+	 * through the latest_submissions RPC when it exists:
+	 * 
+	 * <pre>
+	 * create function latest_submissions(assignment_id uuid) returns setof submission
+	 * language sql stable as $$
+	 *   select distinct on (profile_id, file_name) * from submission s
+	 *   where s.assignment_id = latest_submissions.assignment_id
+	 *   order by profile_id, file_name, version desc
+	 * $$;
+	 * </pre>
+	 * 
+	 * Without the RPC, this falls back to listing every submission row of the
+	 * assignment and reducing them on the client, which still replaces one call
+	 * per student. Both are read page by page until an empty page, so a server
+	 * capping its responses at max-rows cannot cut the result short.
+	 * 
+	 * @param assignmentId The id of the assignment.
+	 * @return The latest submission row for each student and file name, ordered by
+	 *         student and then file name, or null if an error occurred.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public List<AssignmentSubmissionResponse> getLatestSubmissions(String assignmentId) throws IOException {
+		return this.traced("getLatestSubmissions", () -> this.doGetLatestSubmissions(assignmentId));
+	}
+
+	private List<AssignmentSubmissionResponse> doGetLatestSubmissions(String assignmentId) throws IOException {
+		if (this.accessToken == null) {
+			return null;
+		}
+
+		if (!this.latestSubmissionsRpcMissing) {
+			Map<String, Object> parameters = new HashMap<>();
+			parameters.put("assignment_id", assignmentId);
+			boolean[] rpcMissing = { false };
+			List<AssignmentSubmissionResponse> latest = drain(new PagedQuery<AssignmentSubmissionResponse>(last -> {
+				RestQueryBuilder queryBuilder = RestQueryBuilder.from("rpc/latest_submissions").order("id", true);
+				return last == null ? queryBuilder : queryBuilder.greaterThan("id", last.id);
+			}, queryString -> {
+				HttpRequest request = this.createPostRequest(queryString, parameters);
+				request.setThrowExceptionOnExecuteError(false);
+
+				HttpResponse httpResponse = this.execute(request);
+				if (httpResponse.isSuccessStatusCode()) {
+					return httpResponse.parseAs(AssignmentSubmissionResponse[].class);
+				}
+				httpResponse.ignore();
+				if (httpResponse.getStatusCode() != 404) {
+					throw new HttpResponseException(httpResponse);
+				}
+				rpcMissing[0] = true;
+				return null;
+			}, LATEST_SUBMISSIONS_PAGE_SIZE));
+			if (!rpcMissing[0]) {
+				latest.sort(BY_PROFILE_AND_FILE);
+				return latest;
+			}
+			this.latestSubmissionsRpcMissing = true;
+		}
+
+		Map<String, AssignmentSubmissionResponse> latest = new HashMap<>();
+		for (AssignmentSubmissionResponse submission : drain(new PagedQuery<AssignmentSubmissionResponse>(last -> {
+			RestQueryBuilder queryBuilder = RestQueryBuilder.from("submission") //
+					.select("id,profile_id,assignment_id,file_name,version,created_at") //
+					.equals("assignment_id", assignmentId) //
+					.order("id", true);
+			return last == null ? queryBuilder : queryBuilder.greaterThan("id", last.id);
+		}, queryString -> this.executeGet(queryString).parseAs(AssignmentSubmissionResponse[].class),
+				LATEST_SUBMISSIONS_PAGE_SIZE))) {
+			latest.merge(submission.profileId + "\0" + submission.fileName, submission,
+					(previous, current) -> isNewer(current, previous) ? current : previous);
+		}
+		List<AssignmentSubmissionResponse> result = new ArrayList<>(latest.values());
+		result.sort(BY_PROFILE_AND_FILE);
+		return result;
+	}
+
+	private static boolean isNewer(AssignmentSubmissionResponse submission, AssignmentSubmissionResponse other) {
+		return other.version == null || (submission.version != null && submission.version > other.version);
+	}
+
+	/**
+	 * Reads every page of a query, rethrowing the failure of a page as the
+	 * IOException it was.
+	 */
+	private static <T> List<T> drain(PagedQuery<T> query) throws IOException {
+		List<T> rows = new ArrayList<>();
+		try {
+			query.forEach(rows::add);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return rows;
+	}
+
 	/**
 	 * Get the contents of the file with the given file name. This method returns
 	 * the contents in plain text as opposed to the bytes constituting the file.
@@ -397,7 +960,9 @@ public class AutograderClient {
 	 *                     for.
 	 * @param version      The submission version to use.
 	 * @param fileName     The name of the file to download.
-	 * @return The InputStream of the file downloaded.
+	 * @return The InputStream of the file downloaded. The stream must be closed;
+	 *         it holds a request slot (and the tenant's quota permit) until it
+	 *         is, so a stream that is never closed takes the slot away for good.
 	 * @throws IOException If the request could not be successfully sent, an
 	 *                     IOException is thrown.
 	 * 
@@ -405,6 +970,12 @@ public class AutograderClient {
 	 */
 	public InputStream getFileInputStream(String studentId, String assignmentId, String version, String fileName)
 			throws IOException {
+		return this.traced("getFileInputStream",
+				() -> this.doGetFileInputStream(studentId, assignmentId, version, fileName));
+	}
+
+	private InputStream doGetFileInputStream(String studentId, String assignmentId, String version, String fileName)
+			throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
@@ -417,9 +988,7 @@ public class AutograderClient {
 			throw new RuntimeException(String.format("File does not exist '%s' does not exist.", fileName));
 		}
 
-		String path = "/storage/v1/object/submissions/" + profile.authId + "/" + submission.id;
-
-		HttpResponse httpResponse = this.createGetRequest(path).execute();
+		HttpResponse httpResponse = this.executeGet(this.submissionPath(profile, submission));
 		if (httpResponse.isSuccessStatusCode()) {
 			return httpResponse.getContent();
 		}
@@ -444,10 +1013,25 @@ public class AutograderClient {
 	 */
 	public String downloadFile(String profileId, String assignmentId, String version, String fileName)
 			throws IOException {
+		return this.traced("downloadFile", () -> this.doDownloadFile(profileId, assignmentId, version, fileName));
+	}
+
+	private String doDownloadFile(String profileId, String assignmentId, String version, String fileName)
+			throws IOException {
 		if (this.accessToken == null) {
 			return null;
 		}
 
+		ContentStore store = this.contentStore;
+		String alias = "file:" + profileId + "/" + assignmentId + "/" + version + "/" + fileName;
+		if (store != null) {
+			ContentStore.StoredObject stored = store.lookup(this.getIdentity(), alias);
+			if (stored != null) {
+				Operation.current().recordCacheHit();
+				return new String(stored.content, stored.charset);
+			}
+		}
+
 		ProfileResponse profile = this.getUserProfile(profileId);
 
 		AssignmentSubmissionResponse submission = this.getAssignmentSubmission(profileId, assignmentId,
@@ -456,9 +1040,45 @@ public class AutograderClient {
 		if (submission == null) {
 			throw new RuntimeException(String.format("File does not exist '%s' does not exist.", fileName));
 		}
-		String path = "/storage/v1/object/submissions/" + profile.authId + "/" + submission.id;
 
-		HttpResponse httpResponse = this.createGetRequest(path).execute();
+		String content = this.downloadSubmission(profile, submission);
+		if (store != null && content != null) {
+			store.link(this.getIdentity(), alias, this.submissionPath(profile, submission));
+		}
+		return content;
+	}
+
+	/**
+	 * Downloads the stored file behind a single submission row. Unlike
+	 * downloadFile, this does not look up the profile or the submission again, so
+	 * callers that already listed the submissions (such as the grading pipeline)
+	 * only pay for the storage request.
+	 * 
+	 * @param profile    The profile of the student who owns the submission. Must
+	 *                   include the auth id.
+	 * @param submission The submission row describing the file.
+	 * @return The contents of the file downloaded.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public String downloadSubmission(ProfileResponse profile, AssignmentSubmissionResponse submission)
+			throws IOException {
+		return this.traced("downloadSubmission", () -> this.doDownloadSubmission(profile, submission));
+	}
+
+	private String doDownloadSubmission(ProfileResponse profile, AssignmentSubmissionResponse submission)
+			throws IOException {
+		if (this.accessToken == null) {
+			return null;
+		}
+
+		String path = this.submissionPath(profile, submission);
+		if (this.contentStore != null) {
+			ContentStore.StoredObject stored = this.downloadStored(path, this.contentStore);
+			return stored == null ? null : new String(stored.content, stored.charset);
+		}
+
+		HttpResponse httpResponse = this.executeGet(path);
 		if (httpResponse.isSuccessStatusCode()) {
 			return httpResponse.parseAsString();
 		}
@@ -466,6 +1086,296 @@ public class AutograderClient {
 		return null;
 	}
 
+	/**
+	 * Downloads the stored file behind a single submission row as raw bytes, for
+	 * callers that keep the file rather than read it as text. Unlike the String
+	 * variant, binary and non-ASCII files are written exactly as they were
+	 * submitted, whatever charset storage reports.
+	 * 
+	 * @param profile    The profile of the student who owns the submission. Must
+	 *                   include the auth id.
+	 * @param submission The submission row describing the file.
+	 * @param out        The stream to write the file to. It is not closed.
+	 * @return Whether the file was written, false if the client has no access
+	 *         token or storage did not return the file.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public boolean downloadSubmission(ProfileResponse profile, AssignmentSubmissionResponse submission,
+			OutputStream out) throws IOException {
+		return this.traced("downloadSubmission", () -> this.doDownloadSubmission(profile, submission, out));
+	}
+
+	private boolean doDownloadSubmission(ProfileResponse profile, AssignmentSubmissionResponse submission,
+			OutputStream out) throws IOException {
+		if (this.accessToken == null) {
+			return false;
+		}
+
+		String path = this.submissionPath(profile, submission);
+		if (this.contentStore != null) {
+			ContentStore.StoredObject stored = this.downloadStored(path, this.contentStore);
+			if (stored == null) {
+				return false;
+			}
+			out.write(stored.content);
+			return true;
+		}
+
+		HttpResponse httpResponse = this.executeGet(path);
+		if (httpResponse.isSuccessStatusCode()) {
+			httpResponse.download(out);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Compares two submitted versions of an assignment by a student. The
+	 * submission rows of both versions are listed in one request and every file is
+	 * compared by the ETag storage reports for it, using HEAD requests sent side by
+	 * side (or the content store, for files downloaded before), so no file
+	 * contents are transferred.
+	 * 
+	 * @param profileId    The id of the student.
+	 * @param assignmentId The id of the assignment.
+	 * @param fromVersion  The version the caller already has.
+	 * @param toVersion    The version the caller wants.
+	 * @return The files added, changed, unchanged and removed between the
+	 *         versions, or null if an error occurred.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public VersionDiff diffVersions(String profileId, String assignmentId, int fromVersion, int toVersion)
+			throws IOException {
+		return this.traced("diffVersions", () -> this.doDiffVersions(profileId, assignmentId, fromVersion, toVersion));
+	}
+
+	private VersionDiff doDiffVersions(String profileId, String assignmentId, int fromVersion, int toVersion)
+			throws IOException {
+		if (this.accessToken == null) {
+			return null;
+		}
+
+		String queryString = RestQueryBuilder.from("submission") //
+				.select("*,profile(auth_id)") //
+				.equals("assignment_id", assignmentId) //
+				.equals("profile_id", profileId) //
+				.in("version", fromVersion, toVersion) //
+				.generateQuery();
+
+		HttpResponse httpResponse = this.executeGet(queryString);
+		if (!httpResponse.isSuccessStatusCode()) {
+			return null;
+		}
+
+		Map<String, AssignmentSubmissionResponse> previous = new HashMap<>();
+		VersionDiff diff = new VersionDiff(fromVersion, toVersion);
+		for (AssignmentSubmissionResponse submission : httpResponse.parseAs(AssignmentSubmissionResponse[].class)) {
+			if (Objects.equals(submission.version, fromVersion)) {
+				previous.put(submission.fileName, submission);
+			}
+			if (Objects.equals(submission.version, toVersion)) {
+				diff.submissions.put(submission.fileName, submission);
+			}
+		}
+
+		List<String> paths = new ArrayList<>();
+		for (AssignmentSubmissionResponse submission : diff.submissions.values()) {
+			AssignmentSubmissionResponse previousSubmission = previous.get(submission.fileName);
+			if (previousSubmission != null) {
+				paths.add(this.submissionPath(submission.profile, submission));
+				paths.add(this.submissionPath(previousSubmission.profile, previousSubmission));
+			}
+		}
+		Map<String, String> etags = this.getETags(paths);
+
+		for (AssignmentSubmissionResponse submission : diff.submissions.values()) {
+			AssignmentSubmissionResponse previousSubmission = previous.get(submission.fileName);
+			if (previousSubmission == null) {
+				diff.added.add(submission.fileName);
+				continue;
+			}
+			String etag = etags.get(this.submissionPath(submission.profile, submission));
+			String previousEtag = etags.get(this.submissionPath(previousSubmission.profile, previousSubmission));
+			if (etag != null && etag.equals(previousEtag)) {
+				diff.unchanged.add(submission.fileName);
+			} else {
+				diff.changed.add(submission.fileName);
+			}
+		}
+		for (String fileName : previous.keySet()) {
+			if (!diff.submissions.containsKey(fileName)) {
+				diff.removed.add(fileName);
+			}
+		}
+		return diff;
+	}
+
+	/**
+	 * Gets the files of the new version of a diff, downloading only the files that
+	 * were added or changed. Unchanged files are taken from the caller's copy of
+	 * the old version, and only downloaded if the caller does not have them.
+	 * 
+	 * @param diff          The diff returned by diffVersions.
+	 * @param previousFiles The contents of the old version the caller already
+	 *                      has, keyed by file name.
+	 * @return The contents of every file of the new version, keyed by file name.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public Map<String, String> fetchVersion(VersionDiff diff, Map<String, String> previousFiles) throws IOException {
+		return this.traced("fetchVersion", () -> this.doFetchVersion(diff, previousFiles));
+	}
+
+	private Map<String, String> doFetchVersion(VersionDiff diff, Map<String, String> previousFiles) throws IOException {
+		Map<String, String> files = new LinkedHashMap<>();
+		for (AssignmentSubmissionResponse submission : diff.submissions.values()) {
+			String content = null;
+			if (diff.unchanged.contains(submission.fileName)) {
+				content = previousFiles.get(submission.fileName);
+			}
+			if (content == null) {
+				content = this.downloadSubmission(submission.profile, submission);
+			}
+			files.put(submission.fileName, content);
+		}
+		return files;
+	}
+
+	/**
+	 * Gets the ETags of several storage objects, sending the HEAD requests for the
+	 * objects missing from the content store at the same time.
+	 *
+	 * @return The ETag of every path, keyed by path.
+	 */
+	private Map<String, String> getETags(List<String> paths) throws IOException {
+		Map<String, String> etags = new HashMap<>();
+		if (paths.size() <= 1) {
+			for (String path : paths) {
+				etags.put(path, this.getETag(path));
+			}
+			return etags;
+		}
+
+		Operation operation = Operation.current();
+		Map<String, Future<String>> lookups = new LinkedHashMap<>();
+		try {
+			for (String path : paths) {
+				lookups.put(path, LOOKUPS.submit(() -> {
+					Operation previous = Operation.attach(operation);
+					try {
+						return this.getETag(path);
+					} finally {
+						Operation.attach(previous);
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<String>> lookup : lookups.entrySet()) {
+				etags.put(lookup.getKey(), lookup.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for ETags.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			for (Future<String> lookup : lookups.values()) {
+				lookup.cancel(true);
+			}
+		}
+		return etags;
+	}
+
+	/**
+	 * @return The ETag of a storage object, from the content store if it was
+	 *         downloaded before, or else from a HEAD request. Null if storage did
+	 *         not report one.
+	 */
+	private String getETag(String path) throws IOException {
+		ContentStore store = this.contentStore;
+		if (store != null) {
+			ContentStore.StoredObject stored = store.lookup(this.getIdentity(), path);
+			if (stored != null && stored.etag != null) {
+				Operation.current().recordCacheHit();
+				return stored.etag;
+			}
+		}
+
+		HttpResponse httpResponse = this.executeGet(path, request -> request.setRequestMethod("HEAD"));
+		try {
+			return httpResponse.isSuccessStatusCode() ? httpResponse.getHeaders().getETag() : null;
+		} finally {
+			httpResponse.ignore();
+		}
+	}
+
+	/**
+	 * Calls a database function through PostgREST (/rest/v1/rpc). The function
+	 * runs with the caller's RLS identity.
+	 * 
+	 * @param function   The name of the function.
+	 * @param parameters The named arguments of the function, serialized as a JSON
+	 *                   object.
+	 * @param type       The type to parse the result as, or Void.class for
+	 *                   functions without a result.
+	 * @return The result of the function, or null if it has none or an error
+	 *         occurred.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public <T> T callFunction(String function, Object parameters, Class<T> type) throws IOException {
+		return this.traced("callFunction", () -> this.doCallFunction(function, parameters, type));
+	}
+
+	private <T> T doCallFunction(String function, Object parameters, Class<T> type) throws IOException {
+		if (this.accessToken == null) {
+			return null;
+		}
+
+		HttpResponse httpResponse = this.execute(this.createPostRequest("/rest/v1/rpc/" + function, parameters));
+		if (httpResponse.isSuccessStatusCode()) {
+			if (type == Void.class) {
+				httpResponse.ignore();
+				return null;
+			}
+			return httpResponse.parseAs(type);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Downloads a submission object through the content store. The path names the
+	 * immutable id of the submission row, so a stored object is returned as is.
+	 */
+	private ContentStore.StoredObject downloadStored(String path, ContentStore store) throws IOException {
+		String identity = this.getIdentity();
+		ContentStore.StoredObject stored = store.lookup(identity, path);
+		if (stored != null) {
+			Operation.current().recordCacheHit();
+			return stored;
+		}
+		HttpResponse httpResponse = this.executeGet(path);
+		if (httpResponse.isSuccessStatusCode()) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			httpResponse.download(content);
+			String charset = httpResponse.getContentCharset().name();
+			String etag = httpResponse.getHeaders().getETag();
+			byte[] bytes = content.toByteArray();
+			String hash = store.store(identity, path, etag, charset, bytes);
+			return new ContentStore.StoredObject(etag, hash, charset, bytes);
+		}
+
+		return null;
+	}
+
 	private List<ProfileResponse> enrollments2profiles(EnrollmentResponse[] enrollments) {
 		Map<String, ProfileResponse> profilesMap = new HashMap<>();
 		for (EnrollmentResponse enrollment : enrollments) {
@@ -498,21 +1408,190 @@ public class AutograderClient {
 		return true;
 	}
 
-	private HttpRequest createGetRequest(String queryString) throws IOException {
-		HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(this.supabaseBaseUrl + queryString));
+	private String submissionPath(ProfileResponse profile, AssignmentSubmissionResponse submission) {
+		return "/storage/v1/object/submissions/" + profile.authId + "/" + submission.id;
+	}
+
+	private HttpResponse executeGet(String queryString) throws IOException {
+		return this.executeGet(queryString, null);
+	}
+
+	private HttpResponse executeGet(String queryString, Consumer<HttpRequest> customizer) throws IOException {
+		return this.executeGet(endpointOf(queryString), () -> new GenericUrl(this.supabaseBaseUrl + queryString),
+				customizer);
+	}
+
+	/**
+	 * Executes a compiled query. The values are checked before anything is sent;
+	 * each attempt fills in the template again, since a URL belongs to a single
+	 * request.
+	 */
+	private HttpResponse executeGet(QueryTemplate template, Object... values) throws IOException {
+		template.check(values);
+		return this.executeGet(template.getPath(), () -> template.toUrl(this.baseUrl, values), null);
+	}
+
+	/**
+	 * Executes a GET request. GET requests are idempotent, so they are hedged when
+	 * a hedging policy is set.
+	 */
+	private HttpResponse executeGet(String endpoint, Supplier<GenericUrl> url, Consumer<HttpRequest> customizer)
+			throws IOException {
+		Operation operation = Operation.current();
+		Callable<HttpResponse> attempt = () -> {
+			// Hedged attempts run on other threads but belong to the caller's operation.
+			Operation previous = Operation.attach(operation);
+			try {
+				HttpRequest request = this.createGetRequest(url.get());
+				if (customizer != null) {
+					customizer.accept(request);
+				}
+				return this.execute(request);
+			} finally {
+				Operation.attach(previous);
+			}
+		};
+
+		HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+		if (hedgingPolicy == null) {
+			try {
+				return attempt.call();
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+		return hedgingPolicy.execute(endpoint, attempt);
+	}
+
+	/**
+	 * Executes a request within the user's quota and under the client's deadline,
+	 * if there are any. The quota permit and the scheduler slot are held until the
+	 * response body is closed, since that is where large responses spend their
+	 * time. The request is not sent once the deadline has passed, its timeouts
+	 * are capped by the remaining budget, and its connection is closed as soon as
+	 * the deadline expires or is cancelled, whether it is waiting for the response
+	 * or still reading the body.
+	 */
+	private HttpResponse execute(HttpRequest request) throws IOException {
+		Deadline deadline = this.deadline;
+		TenantQuotas tenantQuotas = this.tenantQuotas;
+		RequestScheduler requestScheduler = this.requestScheduler;
+		if (deadline == null && tenantQuotas == null && requestScheduler == null) {
+			return request.execute();
+		}
+
+		if (deadline != null) {
+			deadline.check();
+		}
+		String identity = tenantQuotas == null && requestScheduler == null ? null : this.getIdentity();
+		if (tenantQuotas != null) {
+			tenantQuotas.acquire(identity, deadline == null ? Long.MAX_VALUE : deadline.remainingMillis());
+		}
+		RequestScheduler.Slot[] slot = { null };
+		AtomicBoolean released = new AtomicBoolean();
+		Runnable release = () -> {
+			if (released.compareAndSet(false, true)) {
+				if (slot[0] != null) {
+					slot[0].release();
+				}
+				if (tenantQuotas != null) {
+					tenantQuotas.release(identity);
+				}
+			}
+		};
+		try {
+			if (requestScheduler != null) {
+				slot[0] = requestScheduler.acquire(this.getPriority(), identity,
+						deadline == null ? Long.MAX_VALUE : deadline.remainingMillis());
+			}
+			// The connection releases the quota and the slot once the response body is closed.
+			CURRENT_RELEASE.set(release);
+			return this.send(request, deadline);
+		} catch (IOException | RuntimeException e) {
+			release.run();
+			throw e;
+		} finally {
+			CURRENT_RELEASE.remove();
+		}
+	}
+
+	private HttpResponse send(HttpRequest request, Deadline deadline) throws IOException {
+		if (deadline == null) {
+			return request.execute();
+		}
+
+		long remaining = deadline.remainingMillis();
+		if (remaining < Integer.MAX_VALUE) {
+			int timeout = (int) Math.max(1, remaining);
+			// A timeout of 0 means no timeout at all.
+			request.setConnectTimeout(request.getConnectTimeout() == 0 ? timeout : Math.min(request.getConnectTimeout(), timeout));
+			request.setReadTimeout(request.getReadTimeout() == 0 ? timeout : Math.min(request.getReadTimeout(), timeout));
+		}
+		// Retries would outlive the budget the timeouts were derived from.
+		request.setNumberOfRetries(0);
+
+		CURRENT_DEADLINE.set(deadline);
+		try {
+			return request.execute();
+		} catch (IOException | RuntimeException e) {
+			// Without a response nothing else closes the connection, which would
+			// leave its callback registered on the deadline.
+			HttpURLConnection connection = CURRENT_CONNECTION.get();
+			if (connection != null) {
+				connection.disconnect();
+			}
+			if (e instanceof IOException) {
+				deadline.check();
+			}
+			throw e;
+		} finally {
+			CURRENT_DEADLINE.remove();
+			CURRENT_CONNECTION.remove();
+		}
+	}
+
+
+	/**
+	 * @return The table or storage bucket a request goes to, without the query or
+	 *         object path, for grouping requests by endpoint.
+	 */
+	static String endpointOf(String queryString) {
+		int end = queryString.indexOf('?');
+		String path = end < 0 ? queryString : queryString.substring(0, end);
+		if (path.startsWith("/storage/v1/object/")) {
+			int bucketEnd = path.indexOf('/', "/storage/v1/object/".length());
+			return bucketEnd < 0 ? path : path.substring(0, bucketEnd);
+		}
+		return path;
+	}
+
+	private HttpRequest createGetRequest(GenericUrl url) throws IOException {
+		HttpRequest request = requestFactory.buildGetRequest(url);
 		HttpHeaders headers = request.getHeaders();
 		headers.set("apikey", this.supabaseAnonKey);
 		headers.setAuthorization("Bearer " + this.accessToken);
+		headers.setAcceptEncoding(this.compressionEnabled ? "gzip" : "identity");
+		return request;
+	}
+
+	private HttpRequest createPostRequest(String path, Object body) throws IOException {
+		HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(this.supabaseBaseUrl + path),
+				new JsonHttpContent(JSON_FACTORY, body));
+		HttpHeaders headers = request.getHeaders();
+		headers.set("apikey", this.supabaseAnonKey);
+		headers.setAuthorization("Bearer " + this.accessToken);
+		headers.setAcceptEncoding(this.compressionEnabled ? "gzip" : "identity");
 		return request;
 	}
 
 	public AutograderClass getClass(String classId) throws IOException {
-		String queryString = RestQueryBuilder.from("class") //
-				.select("*, assignment(*)") //
-				.equals("id", classId) //
-				.generateQuery();
+		return this.traced("getClass", () -> this.doGetClass(classId));
+	}
 
-		HttpResponse httpResponse = this.createGetRequest(queryString).execute();
+	private AutograderClass doGetClass(String classId) throws IOException {
+		HttpResponse httpResponse = this.executeGet(CLASS_WITH_ASSIGNMENTS, classId);
 		if (httpResponse.isSuccessStatusCode()) {
 			AutograderClass[] clazzes = httpResponse.parseAs(AutograderClass[].class);
 			return clazzes.length > 0 ? clazzes[0] : null;
@@ -520,6 +1599,62 @@ public class AutograderClient {
 		return null;
 	}
 
+	/**
+	 * Gets the class, its assignments, every enrolled profile and their
+	 * submissions in a single request, using PostgREST resource embedding. Only
+	 * the columns used by the SDK are selected. This replaces a getClass call, a
+	 * getUserProfilesInClass call and one submission listing per student.
+	 * Submissions are embedded under the class's assignments, so submissions a
+	 * profile made in other classes are never sent.
+	 * 
+	 * @param classId The id of the class.
+	 * @return The deduplicated graph of the class, or null if the class does not
+	 *         exist or an error occurred.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public ClassGraph getClassGraph(String classId) throws IOException {
+		return this.getClassGraph(classId, null);
+	}
+
+	/**
+	 * Same as getClassGraph, but only embeds the submissions of one assignment.
+	 * 
+	 * @param classId      The id of the class.
+	 * @param assignmentId The id of the assignment whose submissions are needed,
+	 *                     or null for the submissions of every assignment.
+	 * @return The deduplicated graph of the class, or null if the class does not
+	 *         exist or an error occurred.
+	 * @throws IOException If the request could not be successfully sent, an
+	 *                     IOException is thrown.
+	 */
+	public ClassGraph getClassGraph(String classId, String assignmentId) throws IOException {
+		return this.traced("getClassGraph", () -> this.doGetClassGraph(classId, assignmentId));
+	}
+
+	private ClassGraph doGetClassGraph(String classId, String assignmentId) throws IOException {
+		if (this.accessToken == null) {
+			return null;
+		}
+
+		RestQueryBuilder queryBuilder = RestQueryBuilder.from("class") //
+				.select("id,name,quarter") //
+				.select("assignment(id,name,description,required_files,due_date,class_id," //
+						+ "submission(id,profile_id,assignment_id,file_name,version,created_at))") //
+				.select("enrollment(type,profile(id,email,auth_id))") //
+				.equals("id", classId);
+		if (assignmentId != null) {
+			queryBuilder = queryBuilder.equals("assignment.submission.assignment_id", assignmentId);
+		}
+
+		HttpResponse httpResponse = this.executeGet(queryBuilder.generateQuery());
+		if (httpResponse.isSuccessStatusCode()) {
+			AutograderClass[] clazzes = httpResponse.parseAs(AutograderClass[].class);
+			return clazzes.length > 0 ? ClassGraph.from(clazzes[0]) : null;
+		}
+		return null;
+	}
+
 	public String serialize(Object object, boolean shouldPrettyPrint) throws IOException {
 		if (shouldPrettyPrint) {
 			return JSON_FACTORY.toPrettyString(object);
@@ -527,4 +1662,18 @@ public class AutograderClient {
 			return JSON_FACTORY.toString(object);
 		}
 	}
+
+	/**
+	 * Serializes an object straight into a stream, without building the document
+	 * as a String first. For collections of rows, especially the streamed ones,
+	 * use JsonExporter instead, which writes one row at a time.
+	 */
+	public void serialize(Object object, OutputStream out, boolean shouldPrettyPrint) throws IOException {
+		JsonGenerator generator = JSON_FACTORY.createJsonGenerator(out, StandardCharsets.UTF_8);
+		if (shouldPrettyPrint) {
+			generator.enablePrettyPrint();
+		}
+		generator.serialize(object);
+		generator.flush();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package sdk;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-endpoint counters of how many bytes responses took on the wire compared
+ * to their decoded size. Wire bytes are counted before decompression, decoded
+ * bytes after it, so the difference is what compression saved.
+ */
+public class CompressionStats {
+	private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * The counters of one endpoint.
+	 */
+	public static class EndpointStats {
+		private final AtomicLong responses = new AtomicLong();
+		private final AtomicLong compressedResponses = new AtomicLong();
+		private final AtomicLong wireBytes = new AtomicLong();
+		private final AtomicLong decodedBytes = new AtomicLong();
+
+		public long getResponses() {
+			return this.responses.get();
+		}
+
+		public long getCompressedResponses() {
+			return this.compressedResponses.get();
+		}
+
+		public long getWireBytes() {
+			return this.wireBytes.get();
+		}
+
+		public long getDecodedBytes() {
+			return this.decodedBytes.get();
+		}
+
+		public long getBytesSaved() {
+			return getDecodedBytes() - getWireBytes();
+		}
+
+		/**
+		 * @return The decoded size divided by the size on the wire, or 1 if nothing
+		 *         was received yet.
+		 */
+		public double getCompressionRatio() {
+			long wireBytes = getWireBytes();
+			return wireBytes == 0 ? 1 : (double) getDecodedBytes() / wireBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("responses:%d, compressed:%d, wire:%dB, decoded:%dB, saved:%dB, ratio:%.2f",
+					getResponses(), getCompressedResponses(), getWireBytes(), getDecodedBytes(), getBytesSaved(),
+					getCompressionRatio());
+		}
+	}
+
+	void record(String endpoint, boolean compressed, long wireBytes, long decodedBytes) {
+		EndpointStats stats = this.endpoints.computeIfAbsent(endpoint, e -> new EndpointStats());
+		stats.responses.incrementAndGet();
+		if (compressed) {
+			stats.compressedResponses.incrementAndGet();
+		}
+		stats.wireBytes.addAndGet(wireBytes);
+		stats.decodedBytes.addAndGet(decodedBytes);
+	}
+
+	/**
+	 * @return The stats of every endpoint seen so far, keyed by endpoint.
+	 */
+	public Map<String, EndpointStats> getStats() {
+		return new TreeMap<>(this.endpoints);
+	}
+
+	public void reset() {
+		this.endpoints.clear();
+	}
+}
@@ -0,0 +1,155 @@
+package sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time budget and cancellation signal shared by every request of an
+ * operation. Pass it to the client with withDeadline; every request made
+ * through that client then checks the deadline before it is sent, uses the
+ * remaining budget as its connect and read timeouts, and is disconnected as
+ * soon as the deadline expires or is cancelled.
+ *
+ * <pre>
+ * Deadline deadline = Deadline.after(30, TimeUnit.SECONDS);
+ * String contents = client.withDeadline(deadline).downloadFile(profileId, assignmentId, "1", "Test.java");
+ * </pre>
+ *
+ * Another thread may call cancel at any time to abort the operation. Closing a
+ * deadline cancels it too, so a deadline scoped with try-with-resources does
+ * not keep its timer scheduled once the operation is over.
+ */
+public class Deadline implements AutoCloseable {
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "autograder-deadline");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		// Deadlines that end early take their timer out of the queue right away.
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	private final long deadlineNanos;
+	private final Set<Runnable> onCancel = new LinkedHashSet<>();
+	private boolean cancelled;
+	private ScheduledFuture<?> timer;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * @return A deadline that expires after the given duration from now.
+	 */
+	public static Deadline after(long duration, TimeUnit unit) {
+		Deadline deadline = new Deadline(System.nanoTime() + unit.toNanos(duration));
+		ScheduledFuture<?> timer = TIMER.schedule(deadline::cancel, duration, unit);
+		synchronized (deadline) {
+			deadline.timer = timer;
+		}
+		return deadline;
+	}
+
+	/**
+	 * @return A deadline that never expires but can still be cancelled.
+	 */
+	public static Deadline none() {
+		return new Deadline(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Cancels the operation. Requests that are in flight are disconnected and no
+	 * further requests are sent.
+	 */
+	public void cancel() {
+		List<Runnable> callbacks;
+		ScheduledFuture<?> timer;
+		synchronized (this) {
+			if (this.cancelled) {
+				return;
+			}
+			this.cancelled = true;
+			callbacks = new ArrayList<>(this.onCancel);
+			this.onCancel.clear();
+			timer = this.timer;
+			this.timer = null;
+		}
+		if (timer != null) {
+			timer.cancel(false);
+		}
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Ends the deadline's scope by cancelling it.
+	 */
+	@Override
+	public void close() {
+		this.cancel();
+	}
+
+	public synchronized boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	public boolean isExpired() {
+		return this.deadlineNanos != Long.MAX_VALUE && System.nanoTime() - this.deadlineNanos >= 0;
+	}
+
+	/**
+	 * @return The remaining budget in milliseconds, or Long.MAX_VALUE if the
+	 *         deadline never expires.
+	 */
+	public long remainingMillis() {
+		if (this.deadlineNanos == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.deadlineNanos - System.nanoTime()));
+	}
+
+	/**
+	 * @throws DeadlineExceededException If the deadline has expired or was
+	 *                                   cancelled.
+	 */
+	public void check() throws DeadlineExceededException {
+		if (this.isExpired()) {
+			throw new DeadlineExceededException("Deadline exceeded.");
+		}
+		if (this.isCancelled()) {
+			throw new DeadlineExceededException("Operation cancelled.");
+		}
+	}
+
+	/**
+	 * Registers a callback that aborts in-flight work. It runs once, when the
+	 * deadline expires or is cancelled, or right away if that already happened.
+	 *
+	 * @return Removes the callback once the work is done, so that a long-lived
+	 *         deadline neither keeps finished work reachable nor aborts it later.
+	 *         Removing it more than once is harmless.
+	 */
+	Runnable onCancel(Runnable callback) {
+		synchronized (this) {
+			if (!this.cancelled) {
+				this.onCancel.add(callback);
+				return () -> {
+					synchronized (this) {
+						this.onCancel.remove(callback);
+					}
+				};
+			}
+		}
+		callback.run();
+		return () -> {
+		};
+	}
+}
@@ -0,0 +1,15 @@
+package sdk;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an operation runs past its deadline or is cancelled. The
+ * remaining requests of the operation are not sent.
+ */
+public class DeadlineExceededException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+}
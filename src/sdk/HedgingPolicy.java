@@ -0,0 +1,281 @@
+package sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.http.HttpResponse;
+
+/**
+ * Hedges idempotent requests to cut tail latency. When a request has not
+ * answered within a percentile of the latencies recently observed for its
+ * endpoint (the p95 by default), a duplicate is sent and whichever answers
+ * first is used. The response of the loser is disconnected as soon as it
+ * arrives; the blocking java.net transport cannot abort a request that is
+ * already waiting on the socket.
+ *
+ * A budget caps the extra load: every request earns a fraction of a hedge
+ * (5% by default) and each hedge spends a whole one, so at most that fraction
+ * of requests is ever duplicated.
+ *
+ * <pre>
+ * client.setHedgingPolicy(new HedgingPolicy(0.95, 0.05));
+ * ...
+ * System.out.println(client.getHedgingPolicy().getStats());
+ * </pre>
+ */
+public class HedgingPolicy {
+	private static final int MIN_SAMPLES = 20;
+	private static final double MAX_BURST = 10;
+
+	private final double percentile;
+	private final double budget;
+	private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "autograder-hedging");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private double budgetTokens;
+
+	public HedgingPolicy() {
+		this(0.95, 0.05);
+	}
+
+	/**
+	 * @param percentile The latency percentile, between 0 and 1, after which a
+	 *                   request is hedged.
+	 * @param budget     The largest fraction of requests that may be hedged.
+	 */
+	public HedgingPolicy(double percentile, double budget) {
+		this.percentile = percentile;
+		this.budget = budget;
+	}
+
+	/**
+	 * Latency and hedging counters of one endpoint.
+	 */
+	public static class EndpointStats {
+		private final LatencyWindow attemptLatencies = new LatencyWindow();
+		private final LatencyWindow observedLatencies = new LatencyWindow();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong hedges = new AtomicLong();
+		private final AtomicLong wins = new AtomicLong();
+
+		public long getRequests() {
+			return this.requests.get();
+		}
+
+		public long getHedges() {
+			return this.hedges.get();
+		}
+
+		/**
+		 * @return The number of hedges that answered before the original request.
+		 */
+		public long getWins() {
+			return this.wins.get();
+		}
+
+		public double getHedgeRate() {
+			long requests = getRequests();
+			return requests == 0 ? 0 : (double) getHedges() / requests;
+		}
+
+		public double getWinRate() {
+			long hedges = getHedges();
+			return hedges == 0 ? 0 : (double) getWins() / hedges;
+		}
+
+		/**
+		 * @return The latency seen by callers at the given percentile, in
+		 *         milliseconds, or -1 if nothing was recorded yet.
+		 */
+		public long getLatencyMillis(double percentile) {
+			return this.observedLatencies.percentile(percentile, 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("requests:%d, hedgeRate:%.3f, winRate:%.3f, p50:%dms, p95:%dms, p99:%dms",
+					getRequests(), getHedgeRate(), getWinRate(), getLatencyMillis(0.5), getLatencyMillis(0.95),
+					getLatencyMillis(0.99));
+		}
+	}
+
+	/**
+	 * @return The stats of every endpoint seen so far, keyed by endpoint.
+	 */
+	public Map<String, EndpointStats> getStats() {
+		return new TreeMap<>(this.endpoints);
+	}
+
+	/**
+	 * Runs the attempt, hedging it with a second call of the same attempt if it is
+	 * slow. The attempt must be idempotent and build a fresh request every time it
+	 * is called.
+	 */
+	HttpResponse execute(String endpoint, Callable<HttpResponse> attempt) throws IOException {
+		EndpointStats stats = this.endpoints.computeIfAbsent(endpoint, e -> new EndpointStats());
+		stats.requests.incrementAndGet();
+		this.earnBudget();
+
+		long start = System.nanoTime();
+		Race race = new Race(stats);
+		Future<?> primary = this.executor.submit(() -> race.run(attempt, false));
+		Future<?> hedge = null;
+		try {
+			long delay = stats.attemptLatencies.percentile(this.percentile, MIN_SAMPLES);
+			if (delay >= 0 && !race.await(Math.max(1, delay)) && this.spendBudget()) {
+				stats.hedges.incrementAndGet();
+				race.launch();
+				hedge = this.executor.submit(() -> race.run(attempt, true));
+			}
+			HttpResponse response = race.result();
+			stats.observedLatencies.record((System.nanoTime() - start) / 1_000_000);
+			return response;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+		} finally {
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	private synchronized void earnBudget() {
+		this.budgetTokens = Math.min(MAX_BURST, this.budgetTokens + this.budget);
+	}
+
+	private synchronized boolean spendBudget() {
+		if (this.budgetTokens >= 1) {
+			this.budgetTokens -= 1;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The original request and its hedge racing for one result. The first
+	 * successful response wins; later ones are disconnected.
+	 */
+	private static class Race {
+		private final EndpointStats stats;
+		private int launched = 1;
+		private int failed;
+		private Exception failure;
+		private HttpResponse response;
+
+		Race(EndpointStats stats) {
+			this.stats = stats;
+		}
+
+		void run(Callable<HttpResponse> attempt, boolean isHedge) {
+			long start = System.nanoTime();
+			try {
+				HttpResponse response = attempt.call();
+				this.stats.attemptLatencies.record((System.nanoTime() - start) / 1_000_000);
+				synchronized (this) {
+					if (this.response == null) {
+						this.response = response;
+						if (isHedge) {
+							this.stats.wins.incrementAndGet();
+						}
+						notifyAll();
+						return;
+					}
+				}
+				response.disconnect();
+			} catch (Exception e) {
+				synchronized (this) {
+					this.failed++;
+					if (this.failure == null) {
+						this.failure = e;
+					}
+					notifyAll();
+				}
+			}
+		}
+
+		synchronized void launch() {
+			this.launched++;
+		}
+
+		/**
+		 * @return Whether the race is decided, either by a response or by every
+		 *         attempt failing.
+		 */
+		synchronized boolean await(long millis) throws InterruptedException {
+			long deadline = System.nanoTime() + millis * 1_000_000;
+			while (!this.isDecided()) {
+				long remaining = (deadline - System.nanoTime()) / 1_000_000;
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+
+		synchronized HttpResponse result() throws IOException, InterruptedException {
+			while (!this.isDecided()) {
+				wait();
+			}
+			if (this.response != null) {
+				return this.response;
+			}
+			if (this.failure instanceof IOException) {
+				throw (IOException) this.failure;
+			}
+			if (this.failure instanceof RuntimeException) {
+				throw (RuntimeException) this.failure;
+			}
+			throw new IOException(this.failure);
+		}
+
+		private boolean isDecided() {
+			return this.response != null || this.failed == this.launched;
+		}
+	}
+
+	/**
+	 * The most recent latencies of an endpoint, in milliseconds.
+	 */
+	static class LatencyWindow {
+		private static final int SIZE = 256;
+
+		private final long[] samples = new long[SIZE];
+		private int count;
+		private int next;
+
+		synchronized void record(long millis) {
+			this.samples[this.next] = millis;
+			this.next = (this.next + 1) % SIZE;
+			this.count = Math.min(SIZE, this.count + 1);
+		}
+
+		/**
+		 * @return The latency at the percentile, or -1 if fewer than minSamples
+		 *         latencies were recorded.
+		 */
+		synchronized long percentile(double percentile, int minSamples) {
+			if (this.count < Math.max(1, minSamples)) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(this.samples, this.count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile * this.count) - 1;
+			return sorted[Math.max(0, Math.min(this.count - 1, index))];
+		}
+	}
+}
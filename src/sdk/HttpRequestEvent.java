@@ -0,0 +1,57 @@
+package sdk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one HTTP request, from opening the connection
+ * until its body is closed. Hedged requests record one event per attempt.
+ */
+@Name("autograder.HttpRequest")
+@Label("Autograder HTTP Request")
+@Category({ "Autograder", "SDK" })
+@Description("An HTTP request sent by AutograderClient")
+@StackTrace(false)
+public class HttpRequestEvent extends jdk.jfr.Event {
+	@Label("Operation")
+	@Description("The client method that sent the request, if any")
+	public String operation;
+
+	@Label("Method")
+	public String method;
+
+	@Label("Endpoint")
+	@Description("The table, function or storage bucket")
+	public String endpoint;
+
+	@Label("Query")
+	@Description("The path and query string, without secrets")
+	public String query;
+
+	@Label("Status")
+	public int status;
+
+	@Label("Rows")
+	public long rows;
+
+	@Label("Wire Bytes")
+	@DataAmount
+	public long wireBytes;
+
+	@Label("Decoded Bytes")
+	@DataAmount
+	public long decodedBytes;
+
+	@Label("Network Time")
+	@Timespan
+	public long networkTime;
+
+	@Label("Parse Time")
+	@Timespan
+	public long parseTime;
+}
@@ -0,0 +1,204 @@
+package sdk;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+/**
+ * Writes rows as JSON to a stream one at a time, so that exports use constant
+ * memory no matter how many rows there are. Rows are written either as a single
+ * JSON array or as newline-delimited JSON (one document per line). The
+ * exporter writes through one buffer for its whole lifetime and can optionally
+ * gzip the output.
+ *
+ * <pre>
+ * try (JsonExporter exporter = JsonExporter.to(out, true).ndjson(true)) {
+ * 	exporter.writeAll(client.streamAssignmentSubmissions(assignmentId, 1000));
+ * }
+ * </pre>
+ */
+public class JsonExporter implements Closeable {
+	private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final Writer writer;
+	private final GZIPOutputStream gzip;
+	private boolean ndjson;
+	private boolean prettyPrint;
+	private JsonGenerator arrayGenerator;
+	private long rows;
+
+	private JsonExporter(OutputStream out, GZIPOutputStream gzip) {
+		this.out = out;
+		this.writer = null;
+		this.gzip = gzip;
+	}
+
+	private JsonExporter(Writer writer) {
+		this.out = null;
+		this.writer = writer;
+		this.gzip = null;
+	}
+
+	/**
+	 * @param out  The stream to write to. It is closed with the exporter.
+	 * @param gzip Whether the output should be gzip compressed.
+	 */
+	public static JsonExporter to(OutputStream out, boolean gzip) throws IOException {
+		if (gzip) {
+			GZIPOutputStream gzipOut = new GZIPOutputStream(out, BUFFER_SIZE);
+			return new JsonExporter(new BufferedOutputStream(gzipOut, BUFFER_SIZE), gzipOut);
+		}
+		return new JsonExporter(new BufferedOutputStream(out, BUFFER_SIZE), null);
+	}
+
+	/**
+	 * @param writer The writer to write to. It is closed with the exporter.
+	 */
+	public static JsonExporter to(Writer writer) {
+		return new JsonExporter(new BufferedWriter(writer, BUFFER_SIZE));
+	}
+
+	/**
+	 * @param ndjson Whether to write one JSON document per line instead of a
+	 *               single JSON array. Must be set before the first row.
+	 */
+	public JsonExporter ndjson(boolean ndjson) {
+		this.ndjson = ndjson;
+		return this;
+	}
+
+	/**
+	 * @param prettyPrint Whether to pretty print the JSON array. Ignored for
+	 *                    newline-delimited JSON, whose rows must fit on one line.
+	 */
+	public JsonExporter prettyPrint(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+		return this;
+	}
+
+	/**
+	 * Writes every row of the source. Paged sources are consumed lazily, so only
+	 * the current page is held in memory.
+	 *
+	 * @return The number of rows written.
+	 * @throws IOException If a row could not be written or a page of the source
+	 *                     could not be fetched, an IOException is thrown.
+	 */
+	public long writeAll(Iterable<?> rows) throws IOException {
+		return this.writeAll(rows.iterator());
+	}
+
+	public long writeAll(Iterator<?> rows) throws IOException {
+		long written = 0;
+		try {
+			while (rows.hasNext()) {
+				this.write(rows.next());
+				written++;
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return written;
+	}
+
+	public void write(Object row) throws IOException {
+		if (this.ndjson) {
+			// A generator per row keeps Jackson from inserting its root separator;
+			// flushing and closing stop at the shared buffer.
+			JsonGenerator generator = this.createGenerator();
+			generator.serialize(row);
+			generator.close();
+			this.writeNewline();
+		} else {
+			if (this.arrayGenerator == null) {
+				this.arrayGenerator = this.createGenerator();
+				if (this.prettyPrint) {
+					this.arrayGenerator.enablePrettyPrint();
+				}
+				this.arrayGenerator.writeStartArray();
+			}
+			this.arrayGenerator.serialize(row);
+		}
+		this.rows++;
+	}
+
+	public long getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Ends the JSON array if one was started, finishes the gzip stream and closes
+	 * the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.ndjson) {
+			if (this.arrayGenerator == null) {
+				this.arrayGenerator = this.createGenerator();
+				this.arrayGenerator.writeStartArray();
+			}
+			this.arrayGenerator.writeEndArray();
+			this.arrayGenerator.close();
+		}
+		if (this.out != null) {
+			this.out.flush();
+			if (this.gzip != null) {
+				this.gzip.finish();
+			}
+			this.out.close();
+		} else {
+			this.writer.close();
+		}
+	}
+
+	private JsonGenerator createGenerator() throws IOException {
+		if (this.out != null) {
+			return JSON_FACTORY.createJsonGenerator(new FilterOutputStream(this.out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+				}
+
+				@Override
+				public void flush() {
+				}
+
+				@Override
+				public void close() {
+				}
+			}, StandardCharsets.UTF_8);
+		}
+		return JSON_FACTORY.createJsonGenerator(new FilterWriter(this.writer) {
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+	}
+
+	private void writeNewline() throws IOException {
+		if (this.out != null) {
+			this.out.write('\n');
+		} else {
+			this.writer.write('\n');
+		}
+	}
+}
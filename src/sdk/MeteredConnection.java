@@ -0,0 +1,365 @@
+package sdk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Wraps the connection of a request so that the response body is counted
+ * before and after decompression. A gzip encoded body is decoded here, as it
+ * streams, and the connection then reports no content encoding or length, so
+ * the HTTP client hands the decoded stream straight to the JSON parser or the
+ * caller without decoding it a second time.
+ *
+ * When the request is traced, the connection also times how long it waited for
+ * the response headers and for body bytes, and reports the trace once the body
+ * is closed.
+ *
+ * Whatever the request holds until its response is done, such as a slot
+ * granted by the {@link RequestScheduler} or its registration with a
+ * {@link Deadline}, is released once: when the body is closed or the connection
+ * is disconnected, or right away when the response has no body.
+ */
+class MeteredConnection extends HttpURLConnection {
+	private final HttpURLConnection connection;
+	private final CompressionStats stats;
+	private final String endpoint;
+	private final RequestTrace trace;
+	private final Runnable onRelease;
+	private final AtomicBoolean released = new AtomicBoolean();
+	private InputStream inputStream;
+	private InputStream errorStream;
+
+	MeteredConnection(HttpURLConnection connection, CompressionStats stats, String endpoint, RequestTrace trace,
+			Runnable release) {
+		super(connection.getURL());
+		this.connection = connection;
+		this.stats = stats;
+		this.endpoint = endpoint;
+		this.trace = trace;
+		this.onRelease = release;
+	}
+
+	private void release() {
+		if (this.onRelease != null && this.released.compareAndSet(false, true)) {
+			this.onRelease.run();
+		}
+	}
+
+	private boolean isGzip() {
+		String encoding = this.connection.getContentEncoding();
+		return encoding != null && encoding.trim().equalsIgnoreCase("gzip");
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (this.inputStream == null) {
+			this.inputStream = new MeteredInputStream(this.connection.getInputStream(), this.isGzip());
+		}
+		return this.inputStream;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		InputStream errorStream = this.connection.getErrorStream();
+		if (errorStream == null) {
+			this.release();
+		} else if (this.errorStream == null) {
+			this.errorStream = new MeteredInputStream(errorStream, this.isGzip());
+		}
+		return this.errorStream;
+	}
+
+	@Override
+	public String getContentEncoding() {
+		return this.isGzip() ? null : this.connection.getContentEncoding();
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		if (this.isGzip() && isRewrittenHeader(name)) {
+			return null;
+		}
+		return this.connection.getHeaderField(name);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		Map<String, List<String>> headers = this.connection.getHeaderFields();
+		if (!this.isGzip()) {
+			return headers;
+		}
+		Map<String, List<String>> decodedHeaders = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (!isRewrittenHeader(header.getKey())) {
+				decodedHeaders.put(header.getKey(), header.getValue());
+			}
+		}
+		return decodedHeaders;
+	}
+
+	private static boolean isRewrittenHeader(String name) {
+		return "Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+	}
+
+	@Override
+	public String getHeaderField(int n) {
+		return this.connection.getHeaderField(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(int n) {
+		return this.connection.getHeaderFieldKey(n);
+	}
+
+	@Override
+	public String getContentType() {
+		return this.connection.getContentType();
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		int responseCode = this.connection.getResponseCode();
+		if (this.trace != null) {
+			this.trace.onHeaders(this.connection.getRequestMethod(), responseCode);
+		}
+		return responseCode;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		return this.connection.getResponseMessage();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return this.connection.getOutputStream();
+	}
+
+	@Override
+	public void connect() throws IOException {
+		this.connection.connect();
+	}
+
+	@Override
+	public void disconnect() {
+		this.connection.disconnect();
+		this.release();
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return this.connection.usingProxy();
+	}
+
+	@Override
+	public void setRequestMethod(String method) throws java.net.ProtocolException {
+		this.connection.setRequestMethod(method);
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return this.connection.getRequestMethod();
+	}
+
+	@Override
+	public void setRequestProperty(String key, String value) {
+		this.connection.setRequestProperty(key, value);
+	}
+
+	@Override
+	public void addRequestProperty(String key, String value) {
+		this.connection.addRequestProperty(key, value);
+	}
+
+	@Override
+	public String getRequestProperty(String key) {
+		return this.connection.getRequestProperty(key);
+	}
+
+	@Override
+	public void setConnectTimeout(int timeout) {
+		this.connection.setConnectTimeout(timeout);
+	}
+
+	@Override
+	public int getConnectTimeout() {
+		return this.connection.getConnectTimeout();
+	}
+
+	@Override
+	public void setReadTimeout(int timeout) {
+		this.connection.setReadTimeout(timeout);
+	}
+
+	@Override
+	public int getReadTimeout() {
+		return this.connection.getReadTimeout();
+	}
+
+	@Override
+	public void setDoOutput(boolean doOutput) {
+		this.connection.setDoOutput(doOutput);
+	}
+
+	@Override
+	public boolean getDoOutput() {
+		return this.connection.getDoOutput();
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(int contentLength) {
+		this.connection.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(long contentLength) {
+		this.connection.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setChunkedStreamingMode(int chunkLength) {
+		this.connection.setChunkedStreamingMode(chunkLength);
+	}
+
+	@Override
+	public void setInstanceFollowRedirects(boolean followRedirects) {
+		this.connection.setInstanceFollowRedirects(followRedirects);
+	}
+
+	@Override
+	public boolean getInstanceFollowRedirects() {
+		return this.connection.getInstanceFollowRedirects();
+	}
+
+	/**
+	 * Counts the bytes read from the wire and, for gzip bodies, the bytes after
+	 * decoding. The gzip header is only read on the first read, so empty bodies
+	 * (HEAD, 204) never fail to decode. The counts are recorded once, when the
+	 * body is closed.
+	 */
+	private class MeteredInputStream extends FilterInputStream {
+		private final boolean gzip;
+		private final CountingInputStream wire;
+		private long decodedBytes;
+		private boolean recorded;
+
+		MeteredInputStream(InputStream in, boolean gzip) {
+			this(new CountingInputStream(in, trace), gzip);
+		}
+
+		private MeteredInputStream(CountingInputStream wire, boolean gzip) {
+			super(wire);
+			this.wire = wire;
+			this.gzip = gzip;
+		}
+
+		private InputStream decoded() throws IOException {
+			if (this.gzip && this.in == this.wire) {
+				this.in = new GZIPInputStream(this.wire);
+			}
+			return this.in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = this.decoded().read();
+			if (b >= 0) {
+				this.decodedBytes++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.decoded().read(b, off, len);
+			if (n > 0) {
+				this.decodedBytes += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.decoded().skip(n);
+			this.decodedBytes += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!this.recorded) {
+				this.recorded = true;
+				stats.record(endpoint, this.gzip, this.wire.count, this.decodedBytes);
+				if (trace != null) {
+					trace.end(this.wire.count, this.decodedBytes);
+				}
+			}
+			try {
+				super.close();
+			} finally {
+				release();
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private final RequestTrace trace;
+		private long count;
+
+		CountingInputStream(InputStream in, RequestTrace trace) {
+			super(in);
+			this.trace = trace;
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = this.trace == null ? 0 : System.nanoTime();
+			int b = super.read();
+			if (this.trace != null) {
+				this.trace.onRead(start, System.nanoTime() - start);
+			}
+			if (b >= 0) {
+				this.count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = this.trace == null ? 0 : System.nanoTime();
+			int n = super.read(b, off, len);
+			if (this.trace != null) {
+				this.trace.onRead(start, System.nanoTime() - start);
+			}
+			if (n > 0) {
+				this.count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
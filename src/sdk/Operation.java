@@ -0,0 +1,189 @@
+package sdk;
+
+import java.lang.reflect.Array;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jdk.jfr.EventType;
+
+/**
+ * One call of a public client method, tracked on the calling thread so that
+ * the requests it sends, the rows it parses and the cache hits it gets are
+ * attributed to it. When the call ends it commits an {@link OperationEvent} and
+ * one {@link HttpRequestEvent} per request, and logs the call if it was slower
+ * than the client's threshold.
+ *
+ * When Flight Recorder is not recording these events and no threshold is set,
+ * begin returns a shared no-op operation and nothing is measured. Calls made
+ * while an operation is running (getStudentsInClass from getSubmittedStudents,
+ * say) are attributed to the outer operation.
+ */
+final class Operation implements AutoCloseable {
+	static final EventType OPERATION_EVENTS = EventType.getEventType(OperationEvent.class);
+	static final EventType REQUEST_EVENTS = EventType.getEventType(HttpRequestEvent.class);
+	private static final Logger LOGGER = Logger.getLogger(AutograderClient.class.getName());
+	private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+	private static final Operation NONE = new Operation(null, -1);
+
+	private final String name;
+	private final long slowCallNanos;
+	private final long startNanos = System.nanoTime();
+	private final OperationEvent event;
+	private final List<RequestTrace> requests = new ArrayList<>();
+	private RequestTrace lastEnded;
+	private long rows;
+	private int cacheHits;
+
+	private Operation(String name, long slowCallNanos) {
+		this.name = name;
+		this.slowCallNanos = slowCallNanos;
+		if (name != null && OPERATION_EVENTS.isEnabled()) {
+			this.event = new OperationEvent();
+			this.event.begin();
+		} else {
+			this.event = null;
+		}
+	}
+
+	/**
+	 * @param name          The name of the client method.
+	 * @param slowCallNanos The duration above which the call is logged, or a
+	 *                      negative number to never log it.
+	 */
+	static Operation begin(String name, long slowCallNanos) {
+		if (CURRENT.get() != null
+				|| (slowCallNanos < 0 && !OPERATION_EVENTS.isEnabled() && !REQUEST_EVENTS.isEnabled())) {
+			return NONE;
+		}
+		Operation operation = new Operation(name, slowCallNanos);
+		CURRENT.set(operation);
+		return operation;
+	}
+
+	/**
+	 * @return The operation running on this thread, or a no-op one.
+	 */
+	static Operation current() {
+		Operation operation = CURRENT.get();
+		return operation == null ? NONE : operation;
+	}
+
+	/**
+	 * Makes the operation current on this thread, for work done on its behalf by
+	 * another thread, such as a hedged attempt.
+	 *
+	 * @return The operation that was current before, to restore afterwards.
+	 */
+	static Operation attach(Operation operation) {
+		Operation previous = current();
+		if (operation == NONE) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(operation);
+		}
+		return previous;
+	}
+
+	/**
+	 * @return A trace for a request this operation is about to send, or null if
+	 *         nothing needs to be measured.
+	 */
+	RequestTrace trace(URL url, String endpoint) {
+		if (this == NONE) {
+			return REQUEST_EVENTS.isEnabled() ? new RequestTrace(null, url, endpoint) : null;
+		}
+		RequestTrace trace = new RequestTrace(this, url, endpoint);
+		synchronized (this) {
+			this.requests.add(trace);
+		}
+		return trace;
+	}
+
+	synchronized void onRequestEnd(RequestTrace trace) {
+		this.lastEnded = trace;
+	}
+
+	/**
+	 * Counts the rows of a parsed response: the length of an array, the size of a
+	 * collection, or one for anything else.
+	 */
+	void recordRows(Object parsed) {
+		if (this == NONE || parsed == null) {
+			return;
+		}
+		long rows = parsed.getClass().isArray() ? Array.getLength(parsed)
+				: parsed instanceof Collection ? ((Collection<?>) parsed).size() : 1;
+		synchronized (this) {
+			this.rows += rows;
+			if (this.lastEnded != null) {
+				this.lastEnded.rows += rows;
+			}
+		}
+	}
+
+	synchronized void recordCacheHit() {
+		if (this != NONE) {
+			this.cacheHits++;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (this == NONE) {
+			return;
+		}
+		CURRENT.remove();
+		long elapsedNanos = System.nanoTime() - this.startNanos;
+
+		List<RequestTrace> requests;
+		synchronized (this) {
+			requests = new ArrayList<>(this.requests);
+		}
+		long wireBytes = 0;
+		long decodedBytes = 0;
+		long networkNanos = 0;
+		long parseNanos = 0;
+		int failedRequests = 0;
+		for (RequestTrace request : requests) {
+			request.commit(this.name);
+			wireBytes += request.wireBytes;
+			decodedBytes += request.decodedBytes;
+			networkNanos += request.getNetworkNanos();
+			parseNanos += request.getParseNanos();
+			if (request.isFailed()) {
+				failedRequests++;
+			}
+		}
+
+		if (this.event != null) {
+			this.event.operation = this.name;
+			this.event.requests = requests.size();
+			this.event.rows = this.rows;
+			this.event.wireBytes = wireBytes;
+			this.event.decodedBytes = decodedBytes;
+			this.event.networkTime = networkNanos;
+			this.event.parseTime = parseNanos;
+			this.event.cacheHits = this.cacheHits;
+			this.event.failedRequests = failedRequests;
+			this.event.commit();
+		}
+
+		if (this.slowCallNanos >= 0 && elapsedNanos >= this.slowCallNanos && LOGGER.isLoggable(Level.WARNING)) {
+			StringBuilder message = new StringBuilder(String.format(
+					"Slow call %s took %d ms: %d requests, %d rows, %d bytes, network %d ms, parse %d ms, %d cache hits",
+					this.name, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), requests.size(), this.rows, wireBytes,
+					TimeUnit.NANOSECONDS.toMillis(networkNanos), TimeUnit.NANOSECONDS.toMillis(parseNanos),
+					this.cacheHits));
+			for (RequestTrace request : requests) {
+				message.append(String.format("%n\t%s %s -> %d in %d ms", request.method, request.query, request.status,
+						TimeUnit.NANOSECONDS.toMillis(request.getElapsedNanos())));
+			}
+			LOGGER.warning(message.toString());
+		}
+	}
+}
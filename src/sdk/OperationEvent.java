@@ -0,0 +1,57 @@
+package sdk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one call of a public client method, such as
+ * getUserProfile or downloadFile, summing up the HTTP requests it made.
+ * Network time is the time spent waiting for response headers and body bytes;
+ * parse time is the rest of the time spent consuming bodies, mostly JSON
+ * parsing.
+ */
+@Name("autograder.Operation")
+@Label("Autograder Operation")
+@Category({ "Autograder", "SDK" })
+@Description("A call of a public AutograderClient method")
+@StackTrace(false)
+public class OperationEvent extends jdk.jfr.Event {
+	@Label("Operation")
+	public String operation;
+
+	@Label("Requests")
+	public int requests;
+
+	@Label("Rows")
+	@Description("The number of rows or objects parsed from responses")
+	public long rows;
+
+	@Label("Wire Bytes")
+	@DataAmount
+	public long wireBytes;
+
+	@Label("Decoded Bytes")
+	@DataAmount
+	public long decodedBytes;
+
+	@Label("Network Time")
+	@Timespan
+	public long networkTime;
+
+	@Label("Parse Time")
+	@Timespan
+	public long parseTime;
+
+	@Label("Cache Hits")
+	@Description("Storage lookups answered by the content store without a request")
+	public int cacheHits;
+
+	@Label("Failed Requests")
+	@Description("Requests that got an error status or no response")
+	public int failedRequests;
+}
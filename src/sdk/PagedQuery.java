@@ -0,0 +1,91 @@
+package sdk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Lazily pages through the rows matched by a query, fetching the next page of
+ * rows only once the previous one has been consumed. Pages are keyset pages:
+ * each one is queried for the rows after the last row of the previous page, so
+ * the query must be ordered by a unique key and filter on it. Unlike an offset,
+ * this lets the database seek straight to the page instead of reading past
+ * every row before it.
+ *
+ * The server may return fewer rows than were asked for (PostgREST caps every
+ * response at its max-rows setting), so a short page does not end the rows;
+ * only an empty page does. Failures while fetching a page are rethrown as
+ * UncheckedIOException from the iterator.
+ *
+ * @param <T> The type of the rows.
+ */
+class PagedQuery<T> implements Iterable<T> {
+
+	/**
+	 * Fetches one page of rows, given the query already restricted to that page.
+	 */
+	interface PageFetcher<T> {
+		T[] fetch(String queryString) throws IOException;
+	}
+
+	private final Function<T, RestQueryBuilder> query;
+	private final PageFetcher<T> fetcher;
+	private final int pageSize;
+
+	/**
+	 * @param query    Creates the query for the rows after a row; called with the
+	 *                 last row of the previous page, or null for the first page.
+	 * @param fetcher  Runs the query of a page.
+	 * @param pageSize The number of rows requested per page.
+	 */
+	PagedQuery(Function<T, RestQueryBuilder> query, PageFetcher<T> fetcher, int pageSize) {
+		this.query = query;
+		this.fetcher = fetcher;
+		this.pageSize = Math.max(1, pageSize);
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private T[] page;
+			private int index;
+			private T last;
+			private boolean lastPage;
+
+			@Override
+			public boolean hasNext() {
+				if (this.page != null && this.index < this.page.length) {
+					return true;
+				}
+				if (this.lastPage) {
+					return false;
+				}
+				try {
+					String queryString = query.apply(this.last) //
+							.limit(pageSize) //
+							.generateQuery();
+					this.page = fetcher.fetch(queryString);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if (this.page == null || this.page.length == 0) {
+					this.lastPage = true;
+					return false;
+				}
+				this.index = 0;
+				this.last = this.page[this.page.length - 1];
+				return true;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return this.page[this.index++];
+			}
+		};
+	}
+}
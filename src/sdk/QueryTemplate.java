@@ -0,0 +1,134 @@
+package sdk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.client.http.GenericUrl;
+
+/**
+ * A query compiled once from a RestQueryBuilder, for queries that are sent over
+ * and over with different values, such as the per-student lookups of a grading
+ * run. The table, the selected columns and the fixed filters are resolved when
+ * the template is compiled; filling it in only adds the values of its
+ * parameters, in the order they were declared.
+ *
+ * A filled template is handed to the HTTP client as a GenericUrl whose parts
+ * are already split. A generated query string is encoded, parsed back into a
+ * GenericUrl and encoded again when the request is sent; a template skips the
+ * first two steps, and no map, encoder or format string is created per
+ * request.
+ *
+ * Templates are immutable and can be shared by every client and thread.
+ */
+public class QueryTemplate {
+
+	/**
+	 * A filter whose value is given when the template is filled in.
+	 */
+	static class Parameter {
+		final String column;
+		final String operator;
+		final Class<?> type;
+
+		Parameter(String column, String operator, Class<?> type) {
+			this.column = column;
+			this.operator = operator;
+			this.type = type;
+		}
+	}
+
+	private final String path;
+	private final List<String> pathParts;
+	private final String[] names;
+	private final String[] values;
+	private final Parameter[] parameters;
+
+	QueryTemplate(String path, Map<String, String> filters, Collection<Parameter> parameters) {
+		this.path = path;
+		this.pathParts = Collections.unmodifiableList(GenericUrl.toPathParts(path));
+		this.names = new String[filters.size()];
+		this.values = new String[filters.size()];
+		int i = 0;
+		for (Map.Entry<String, String> filter : filters.entrySet()) {
+			this.names[i] = filter.getKey();
+			this.values[i] = filter.getValue();
+			i++;
+		}
+		this.parameters = parameters.toArray(new Parameter[0]);
+	}
+
+	/**
+	 * @return The path of the table the query goes to, such as
+	 *         /rest/v1/submission.
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	public int getParameterCount() {
+		return this.parameters.length;
+	}
+
+	/**
+	 * Checks that the values fit the parameters of the template.
+	 *
+	 * @throws IllegalArgumentException If the number of values differs from the
+	 *                                  number of parameters, or a value is null or
+	 *                                  not of its parameter's type.
+	 */
+	void check(Object... values) {
+		if (values.length != this.parameters.length) {
+			throw new IllegalArgumentException(String.format("The query on %s takes %d parameters, but %d were given.",
+					this.path, this.parameters.length, values.length));
+		}
+		for (int i = 0; i < values.length; i++) {
+			Parameter parameter = this.parameters[i];
+			if (!parameter.type.isInstance(values[i])) {
+				throw new IllegalArgumentException(String.format(
+						"Parameter %s of the query on %s must be of type %s, but was %s.", parameter.column, this.path,
+						parameter.type.getSimpleName(),
+						values[i] == null ? "null" : values[i].getClass().getSimpleName()));
+			}
+		}
+	}
+
+	/**
+	 * Fills in the template.
+	 *
+	 * @param baseUrl The URL of the Supabase instance. The query's path is
+	 *                appended to its path.
+	 * @param values  The values of the parameters, in the order they were
+	 *                declared.
+	 * @return The URL of the query, ready to be passed to a request factory.
+	 * @throws IllegalArgumentException If the values do not fit the parameters.
+	 */
+	public GenericUrl toUrl(GenericUrl baseUrl, Object... values) {
+		this.check(values);
+
+		GenericUrl url = new GenericUrl();
+		url.setScheme(baseUrl.getScheme());
+		url.setHost(baseUrl.getHost());
+		url.setPort(baseUrl.getPort());
+		url.setUserInfo(baseUrl.getUserInfo());
+		List<String> basePathParts = baseUrl.getPathParts();
+		if (basePathParts == null) {
+			url.setPathParts(this.pathParts);
+		} else {
+			// The first part of a path starting with a slash is empty.
+			List<String> pathParts = new ArrayList<>(basePathParts);
+			pathParts.addAll(this.pathParts.subList(1, this.pathParts.size()));
+			url.setPathParts(pathParts);
+		}
+
+		for (int i = 0; i < this.names.length; i++) {
+			url.set(this.names[i], this.values[i]);
+		}
+		for (int i = 0; i < values.length; i++) {
+			url.set(this.parameters[i].column, this.parameters[i].operator + values[i]);
+		}
+		return url;
+	}
+}
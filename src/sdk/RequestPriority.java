@@ -0,0 +1,37 @@
+package sdk;
+
+/**
+ * The priority classes of the {@link RequestScheduler}.
+ */
+public enum RequestPriority {
+	/**
+	 * Lookups a person is waiting on, such as a dashboard calling getUserProfile
+	 * or getClass.
+	 */
+	INTERACTIVE(16),
+
+	/**
+	 * Work nobody is waiting on right now but that should finish soon, such as
+	 * grading runs.
+	 */
+	BACKGROUND(4),
+
+	/**
+	 * Exports, roster scans and other work that may take as long as it needs.
+	 */
+	BULK(1);
+
+	private final int defaultWeight;
+
+	RequestPriority(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * @return The share of request slots the class gets by default, relative to
+	 *         the others, while all of them have requests waiting.
+	 */
+	public int getDefaultWeight() {
+		return this.defaultWeight;
+	}
+}
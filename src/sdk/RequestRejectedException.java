@@ -0,0 +1,15 @@
+package sdk;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the {@link RequestScheduler} turns a request away because too many
+ * requests of its priority are already waiting.
+ */
+public class RequestRejectedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public RequestRejectedException(String message) {
+		super(message);
+	}
+}
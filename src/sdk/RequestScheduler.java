@@ -0,0 +1,332 @@
+package sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many requests the client has in flight and decides which waiting
+ * request goes next, so that bulk traffic cannot crowd out interactive calls.
+ * <ul>
+ * <li>A request holds its slot until its response body is closed, so large
+ * downloads count for as long as they transfer.</li>
+ * <li>When a slot frees up, the priority classes with waiting requests share it
+ * by weight (start-time fair queuing): with the default weights, interactive
+ * requests get 16 slots for every 4 background and 1 bulk slot, and no class
+ * starves. Within a class, tenants (RLS identities) take turns.</li>
+ * <li>Some slots are reserved for interactive requests, so they never wait for
+ * bulk requests already in flight to finish.</li>
+ * <li>Each class has a bounded queue. Requests beyond it are rejected with a
+ * {@link RequestRejectedException} instead of piling up.</li>
+ * </ul>
+ *
+ * <pre>
+ * client.setRequestScheduler(new RequestScheduler(8));
+ * client.getUserProfile(profileId); // interactive by default
+ * client.withPriority(RequestPriority.BULK).getSubmittedStudents(classId, assignmentId);
+ * </pre>
+ */
+public class RequestScheduler {
+	public static final int DEFAULT_MAX_QUEUED = 1000;
+
+	private final int maxConcurrentRequests;
+	private final int reservedInteractiveSlots;
+	private final int maxQueued;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<RequestPriority, ClassQueue> queues = new EnumMap<>(RequestPriority.class);
+	private double virtualTime;
+	private int inFlight;
+
+	/**
+	 * Reserves a quarter of the slots for interactive requests and queues up to
+	 * DEFAULT_MAX_QUEUED requests per class.
+	 */
+	public RequestScheduler(int maxConcurrentRequests) {
+		this(maxConcurrentRequests, maxConcurrentRequests / 4, DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * @param maxConcurrentRequests    The most requests in flight at once.
+	 * @param reservedInteractiveSlots How many of those only interactive requests
+	 *                                 may use.
+	 * @param maxQueued                The most requests of one class waiting at
+	 *                                 once.
+	 */
+	public RequestScheduler(int maxConcurrentRequests, int reservedInteractiveSlots, int maxQueued) {
+		this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+		this.reservedInteractiveSlots = Math.max(0, Math.min(this.maxConcurrentRequests - 1, reservedInteractiveSlots));
+		this.maxQueued = Math.max(0, maxQueued);
+		for (RequestPriority priority : RequestPriority.values()) {
+			this.queues.put(priority, new ClassQueue(priority));
+		}
+	}
+
+	/**
+	 * @param weight The share of slots the class gets relative to the other
+	 *               classes while they all have requests waiting.
+	 */
+	public RequestScheduler setWeight(RequestPriority priority, int weight) {
+		this.lock.lock();
+		try {
+			this.queues.get(priority).weight = Math.max(1, weight);
+		} finally {
+			this.lock.unlock();
+		}
+		return this;
+	}
+
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	public int getInFlight() {
+		this.lock.lock();
+		try {
+			return this.inFlight;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Queue-wait and admission counters of one priority class.
+	 */
+	public static class PriorityStats {
+		private final HedgingPolicy.LatencyWindow waitMicros = new HedgingPolicy.LatencyWindow();
+		private final AtomicLong admitted = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong timedOut = new AtomicLong();
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+		private volatile int queued;
+
+		public long getAdmitted() {
+			return this.admitted.get();
+		}
+
+		public long getRejected() {
+			return this.rejected.get();
+		}
+
+		/**
+		 * @return The requests that gave up waiting because their deadline passed.
+		 */
+		public long getTimedOut() {
+			return this.timedOut.get();
+		}
+
+		/**
+		 * @return The requests waiting right now.
+		 */
+		public int getQueued() {
+			return this.queued;
+		}
+
+		public double getMeanWaitMillis() {
+			long admitted = getAdmitted();
+			return admitted == 0 ? 0 : this.totalWaitNanos.get() / 1e6 / admitted;
+		}
+
+		/**
+		 * @return The queue wait of recent requests at the given percentile, in
+		 *         milliseconds, or -1 if nothing was recorded yet.
+		 */
+		public double getWaitMillis(double percentile) {
+			long micros = this.waitMicros.percentile(percentile, 1);
+			return micros < 0 ? -1 : micros / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"admitted:%d, rejected:%d, timedOut:%d, queued:%d, meanWait:%.2fms, p50:%.2fms, p95:%.2fms, p99:%.2fms",
+					getAdmitted(), getRejected(), getTimedOut(), getQueued(), getMeanWaitMillis(), getWaitMillis(0.5),
+					getWaitMillis(0.95), getWaitMillis(0.99));
+		}
+	}
+
+	/**
+	 * @return The stats of every priority class.
+	 */
+	public Map<RequestPriority, PriorityStats> getStats() {
+		Map<RequestPriority, PriorityStats> stats = new EnumMap<>(RequestPriority.class);
+		for (ClassQueue queue : this.queues.values()) {
+			stats.put(queue.priority, queue.stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * A granted request slot. Releasing it more than once has no effect.
+	 */
+	class Slot {
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		void release() {
+			if (this.released.compareAndSet(false, true)) {
+				lock.lock();
+				try {
+					inFlight--;
+					dispatch();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	private class Waiter {
+		private final Condition granted = lock.newCondition();
+		private final long enqueuedNanos = System.nanoTime();
+		private Slot slot;
+	}
+
+	/**
+	 * The waiting requests of one class, in one FIFO queue per tenant. Tenants
+	 * are served round robin.
+	 */
+	private class ClassQueue {
+		private final RequestPriority priority;
+		private final PriorityStats stats = new PriorityStats();
+		private final LinkedHashMap<String, ArrayDeque<Waiter>> tenants = new LinkedHashMap<>();
+		private int weight;
+		private int size;
+		private double nextStart;
+
+		ClassQueue(RequestPriority priority) {
+			this.priority = priority;
+			this.weight = priority.getDefaultWeight();
+		}
+
+		void add(String tenant, Waiter waiter) {
+			if (this.size == 0) {
+				// An idle class does not bank credit for the time it had nothing to send.
+				this.nextStart = Math.max(this.nextStart, virtualTime);
+			}
+			this.tenants.computeIfAbsent(tenant, t -> new ArrayDeque<>()).addLast(waiter);
+			this.size++;
+			this.stats.queued = this.size;
+		}
+
+		Waiter poll() {
+			Iterator<Map.Entry<String, ArrayDeque<Waiter>>> iterator = this.tenants.entrySet().iterator();
+			Map.Entry<String, ArrayDeque<Waiter>> next = iterator.next();
+			Waiter waiter = next.getValue().pollFirst();
+			// Move the tenant to the back of the rotation, or drop it once it is empty.
+			iterator.remove();
+			if (!next.getValue().isEmpty()) {
+				this.tenants.put(next.getKey(), next.getValue());
+			}
+			this.size--;
+			this.stats.queued = this.size;
+			return waiter;
+		}
+
+		void remove(String tenant, Waiter waiter) {
+			ArrayDeque<Waiter> waiters = this.tenants.get(tenant);
+			if (waiters != null && waiters.remove(waiter)) {
+				if (waiters.isEmpty()) {
+					this.tenants.remove(tenant);
+				}
+				this.size--;
+				this.stats.queued = this.size;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a slot.
+	 *
+	 * @param timeoutMillis The longest time to wait, or Long.MAX_VALUE to wait
+	 *                      indefinitely.
+	 * @throws RequestRejectedException  If the queue of the class is full.
+	 * @throws DeadlineExceededException If no slot became free in time.
+	 * @throws InterruptedIOException    If the thread was interrupted while
+	 *                                   waiting.
+	 */
+	Slot acquire(RequestPriority priority, String tenant, long timeoutMillis) throws IOException {
+		ClassQueue queue = this.queues.get(priority);
+		Waiter waiter = new Waiter();
+		this.lock.lock();
+		try {
+			if (queue.size >= this.maxQueued && !this.hasFreeSlot(priority)) {
+				queue.stats.rejected.incrementAndGet();
+				throw new RequestRejectedException(
+						String.format("Too many %s requests waiting (%d).", priority, queue.size));
+			}
+			queue.add(tenant, waiter);
+			this.dispatch();
+
+			long remainingNanos = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+					: TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (waiter.slot == null) {
+				if (remainingNanos <= 0) {
+					queue.remove(tenant, waiter);
+					queue.stats.timedOut.incrementAndGet();
+					throw new DeadlineExceededException("Deadline exceeded while waiting for a request slot.");
+				}
+				if (remainingNanos == Long.MAX_VALUE) {
+					waiter.granted.await();
+				} else {
+					remainingNanos = waiter.granted.awaitNanos(remainingNanos);
+				}
+			}
+		} catch (InterruptedException e) {
+			if (waiter.slot != null) {
+				waiter.slot.release();
+			} else {
+				queue.remove(tenant, waiter);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request slot.");
+		} finally {
+			this.lock.unlock();
+		}
+
+		long waitNanos = System.nanoTime() - waiter.enqueuedNanos;
+		queue.stats.admitted.incrementAndGet();
+		queue.stats.totalWaitNanos.addAndGet(waitNanos);
+		queue.stats.waitMicros.record(TimeUnit.NANOSECONDS.toMicros(waitNanos));
+		return waiter.slot;
+	}
+
+	private boolean hasFreeSlot(RequestPriority priority) {
+		int limit = priority == RequestPriority.INTERACTIVE ? this.maxConcurrentRequests
+				: this.maxConcurrentRequests - this.reservedInteractiveSlots;
+		return this.inFlight < limit;
+	}
+
+	/**
+	 * Hands free slots to waiting requests: among the classes that may use a free
+	 * slot, the one with the earliest virtual start goes first, and its start then
+	 * advances by the inverse of its weight. Must hold the lock.
+	 */
+	private void dispatch() {
+		while (true) {
+			ClassQueue next = null;
+			for (ClassQueue queue : this.queues.values()) {
+				if (queue.size > 0 && this.hasFreeSlot(queue.priority)
+						&& (next == null || queue.nextStart < next.nextStart)) {
+					next = queue;
+				}
+			}
+			if (next == null) {
+				return;
+			}
+			this.virtualTime = next.nextStart;
+			next.nextStart += 1.0 / next.weight;
+			Waiter waiter = next.poll();
+			waiter.slot = new Slot();
+			this.inFlight++;
+			waiter.granted.signal();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package sdk;
+
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/**
+ * The timings and sizes of one HTTP request, collected by its
+ * {@link MeteredConnection} while the request runs and reported to the
+ * operation that sent it, or committed on its own when there is none.
+ */
+class RequestTrace {
+	private static final Pattern SECRET_PARAMETERS = Pattern.compile(
+			"(?i)(^|&)(apikey|token|access_token|refresh_token|password|secret|signature)=[^&]*");
+
+	private final Operation operation;
+	private final HttpRequestEvent event;
+	final String endpoint;
+	final String query;
+	private final long startNanos = System.nanoTime();
+	String method;
+	int status;
+	long rows;
+	long wireBytes;
+	long decodedBytes;
+	private long headersNanos;
+	private long wireReadNanos;
+	private long firstReadNanos = -1;
+	private long endNanos = -1;
+	private boolean committed;
+
+	RequestTrace(Operation operation, URL url, String endpoint) {
+		this.operation = operation;
+		this.endpoint = endpoint;
+		this.query = url.getQuery() == null ? url.getPath() : url.getPath() + "?" + redact(url.getQuery());
+		if (Operation.REQUEST_EVENTS.isEnabled()) {
+			this.event = new HttpRequestEvent();
+			this.event.begin();
+		} else {
+			this.event = null;
+		}
+	}
+
+	/**
+	 * @return The query string with the values of parameters that may carry
+	 *         credentials (signed storage URLs, tokens) replaced.
+	 */
+	static String redact(String query) {
+		return SECRET_PARAMETERS.matcher(query).replaceAll("$1$2=REDACTED");
+	}
+
+	synchronized void onHeaders(String method, int status) {
+		if (this.headersNanos == 0) {
+			this.method = method;
+			this.status = status;
+			this.headersNanos = System.nanoTime() - this.startNanos;
+		}
+	}
+
+	synchronized void onRead(long startNanos, long nanos) {
+		if (this.firstReadNanos < 0) {
+			this.firstReadNanos = startNanos;
+		}
+		this.wireReadNanos += nanos;
+	}
+
+	/**
+	 * Called once the body is closed.
+	 */
+	void end(long wireBytes, long decodedBytes) {
+		synchronized (this) {
+			this.wireBytes = wireBytes;
+			this.decodedBytes = decodedBytes;
+			this.endNanos = System.nanoTime();
+			if (this.event != null) {
+				this.event.end();
+			}
+		}
+		if (this.operation == null) {
+			this.commit(null);
+		} else {
+			this.operation.onRequestEnd(this);
+		}
+	}
+
+	boolean isFailed() {
+		return this.status == 0 || this.status >= 400;
+	}
+
+	/**
+	 * @return The time spent waiting for the response headers and for body bytes.
+	 */
+	synchronized long getNetworkNanos() {
+		return this.headersNanos + this.wireReadNanos;
+	}
+
+	/**
+	 * @return The time the body was being consumed minus the time spent waiting
+	 *         for its bytes, which is the time the caller spent parsing it.
+	 */
+	synchronized long getParseNanos() {
+		if (this.firstReadNanos < 0) {
+			return 0;
+		}
+		long end = this.endNanos < 0 ? System.nanoTime() : this.endNanos;
+		return Math.max(0, end - this.firstReadNanos - this.wireReadNanos);
+	}
+
+	synchronized long getElapsedNanos() {
+		return (this.endNanos < 0 ? System.nanoTime() : this.endNanos) - this.startNanos;
+	}
+
+	synchronized void commit(String operation) {
+		if (this.committed || this.event == null) {
+			return;
+		}
+		this.committed = true;
+		this.event.operation = operation;
+		this.event.method = this.method;
+		this.event.endpoint = this.endpoint;
+		this.event.query = this.query;
+		this.event.status = this.status;
+		this.event.rows = this.rows;
+		this.event.wireBytes = this.wireBytes;
+		this.event.decodedBytes = this.decodedBytes;
+		this.event.networkTime = this.getNetworkNanos();
+		this.event.parseTime = this.getParseNanos();
+		this.event.commit();
+	}
+}
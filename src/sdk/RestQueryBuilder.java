@@ -2,15 +2,18 @@ package sdk;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class RestQueryBuilder {
     private final String url;
     private final Map<String, String> queryParameters;
+    private final Map<String, QueryTemplate.Parameter> templateParameters;
 
     public RestQueryBuilder(String tableName) {
         this.url = "/rest/v1/" + tableName;
         this.queryParameters = new HashMap<>();
+        this.templateParameters = new LinkedHashMap<>();
     }
 
     public static RestQueryBuilder from(String tableName) {
@@ -27,12 +30,77 @@ public class RestQueryBuilder {
         return this;
     }
 
+    /**
+     * Declares an equality filter whose value is given each time the compiled
+     * template is filled in.
+     *
+     * @param column The column to filter on.
+     * @param type   The type values of the parameter must have.
+     */
+    public RestQueryBuilder equalsParameter(String column, Class<?> type) {
+        this.templateParameters.put(column, new QueryTemplate.Parameter(column, "eq.", type));
+        return this;
+    }
+
     public RestQueryBuilder notEquals(String column, Object value) {
         this.queryParameters.put(column, "neq." + value.toString());
         return this;
     }
 
+    public RestQueryBuilder greaterThan(String column, Object value) {
+        this.queryParameters.put(column, "gt." + value.toString());
+        return this;
+    }
+
+    public RestQueryBuilder greaterThanOrEquals(String column, Object value) {
+        this.queryParameters.put(column, "gte." + value.toString());
+        return this;
+    }
+
+    /**
+     * Matches rows that meet any of the conditions, each written in PostgREST's
+     * logical operator syntax, such as {@code id.gt.5} or
+     * {@code and(created_at.eq."2024-01-01T00:00:00+00:00",id.gt.5)}.
+     */
+    public RestQueryBuilder or(String... conditions) {
+        this.queryParameters.put("or", "(" + String.join(",", conditions) + ")");
+        return this;
+    }
+
+    public RestQueryBuilder in(String column, Object... values) {
+        StringBuilder list = new StringBuilder("in.(");
+        for (int i = 0; i < values.length; i++) {
+            list.append(i == 0 ? "" : ",").append(values[i].toString());
+        }
+        this.queryParameters.put(column, list.append(")").toString());
+        return this;
+    }
+
+    public RestQueryBuilder order(String column, boolean ascending) {
+        String ordering = column + (ascending ? ".asc" : ".desc");
+        this.queryParameters.merge("order", ordering, (previousOrdering, currentOrdering) -> previousOrdering + "," + currentOrdering);
+        return this;
+    }
+
+    public RestQueryBuilder limit(int count) {
+        this.queryParameters.put("limit", String.valueOf(count));
+        return this;
+    }
+
+    /**
+     * Compiles the query into a template that can be filled in many times. The
+     * parameters of the template are the ones declared with equalsParameter, in
+     * the order they were declared.
+     */
+    public QueryTemplate compile() {
+        return new QueryTemplate(this.url, this.queryParameters, this.templateParameters.values());
+    }
+
     public String generateQuery() throws UnsupportedEncodingException {
+        if (!this.templateParameters.isEmpty()) {
+            throw new IllegalStateException(String.format("The query on %s has parameters and must be compiled.", this.url));
+        }
+
         StringBuilder queryString = new StringBuilder();
 
         for (Map.Entry<String, String> entry : this.queryParameters.entrySet()) {
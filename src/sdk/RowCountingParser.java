@@ -0,0 +1,46 @@
+package sdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import com.google.api.client.util.ObjectParser;
+
+/**
+ * Parses responses with the given parser and counts the parsed rows towards
+ * the operation running on the calling thread.
+ */
+class RowCountingParser implements ObjectParser {
+	private final ObjectParser parser;
+
+	RowCountingParser(ObjectParser parser) {
+		this.parser = parser;
+	}
+
+	@Override
+	public <T> T parseAndClose(InputStream in, Charset charset, Class<T> dataClass) throws IOException {
+		return counted(this.parser.parseAndClose(in, charset, dataClass));
+	}
+
+	@Override
+	public Object parseAndClose(InputStream in, Charset charset, Type dataType) throws IOException {
+		return counted(this.parser.parseAndClose(in, charset, dataType));
+	}
+
+	@Override
+	public <T> T parseAndClose(Reader reader, Class<T> dataClass) throws IOException {
+		return counted(this.parser.parseAndClose(reader, dataClass));
+	}
+
+	@Override
+	public Object parseAndClose(Reader reader, Type dataType) throws IOException {
+		return counted(this.parser.parseAndClose(reader, dataType));
+	}
+
+	private static <T> T counted(T parsed) {
+		Operation.current().recordRows(parsed);
+		return parsed;
+	}
+}
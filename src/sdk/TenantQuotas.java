@@ -0,0 +1,112 @@
+package sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of requests each tenant (RLS identity) may have in flight at
+ * once, so that one session working through a large class cannot take every
+ * connection from the others. Set it on a client before creating sessions; all
+ * sessions share the same quotas.
+ *
+ * A tenant holds a slot until the body of its response is closed. Tenants are
+ * only tracked while they have requests waiting or in flight, so serving many
+ * users over time does not grow the quotas.
+ */
+public class TenantQuotas {
+	private final int maxConcurrentRequests;
+	private final Map<String, Tenant> tenants = new HashMap<>();
+
+	/**
+	 * The slots of one tenant, and how many requests are waiting for or holding
+	 * one of them.
+	 */
+	private static class Tenant {
+		final Semaphore permits;
+		int users;
+
+		Tenant(int maxConcurrentRequests) {
+			this.permits = new Semaphore(maxConcurrentRequests, true);
+		}
+	}
+
+	/**
+	 * @param maxConcurrentRequests The most requests a single tenant may have in
+	 *                              flight at once.
+	 */
+	public TenantQuotas(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+	}
+
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	/**
+	 * @return The number of requests the tenant has in flight.
+	 */
+	public synchronized int getInFlight(String identity) {
+		Tenant tenant = this.tenants.get(identity);
+		return tenant == null ? 0 : this.maxConcurrentRequests - tenant.permits.availablePermits();
+	}
+
+	/**
+	 * @return The number of tenants with requests waiting or in flight.
+	 */
+	public synchronized int getActiveTenants() {
+		return this.tenants.size();
+	}
+
+	/**
+	 * Waits until the tenant is below its quota and takes a slot.
+	 *
+	 * @param identity      The tenant.
+	 * @param timeoutMillis The longest time to wait, or Long.MAX_VALUE to wait
+	 *                      indefinitely.
+	 * @throws DeadlineExceededException If no slot became free in time.
+	 * @throws InterruptedIOException    If the thread was interrupted while
+	 *                                   waiting.
+	 */
+	void acquire(String identity, long timeoutMillis) throws IOException {
+		Tenant tenant;
+		synchronized (this) {
+			tenant = this.tenants.computeIfAbsent(identity, i -> new Tenant(this.maxConcurrentRequests));
+			tenant.users++;
+		}
+		boolean acquired = false;
+		try {
+			if (timeoutMillis == Long.MAX_VALUE) {
+				tenant.permits.acquire();
+			} else if (!tenant.permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new DeadlineExceededException("Deadline exceeded while waiting for the tenant's request quota.");
+			}
+			acquired = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the tenant's request quota.");
+		} finally {
+			if (!acquired) {
+				this.leave(identity, tenant);
+			}
+		}
+	}
+
+	void release(String identity) {
+		Tenant tenant;
+		synchronized (this) {
+			tenant = this.tenants.get(identity);
+		}
+		tenant.permits.release();
+		this.leave(identity, tenant);
+	}
+
+	private synchronized void leave(String identity, Tenant tenant) {
+		if (--tenant.users == 0) {
+			this.tenants.remove(identity);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A content-addressed store for downloaded submission objects. Every object is
+ * kept once per SHA-256 hash of its bytes, so identical files submitted by
+ * different students (unmodified starter code, unchanged resubmissions) share
+ * one copy. Storage paths map to the hash and the ETag the server returned for
+ * them. Submission objects are stored under the id of their submission row,
+ * which never changes, so the client serves a stored path without asking the
+ * server again; the ETag is kept for comparing versions.
+ *
+ * The store is bounded by the total size of the contents it keeps in memory;
+ * the least recently used contents are evicted first. A store opened on a
+ * directory also keeps every content in a file named by its hash and appends
+ * every path to an index file, so it survives the process: contents evicted
+ * from memory are read back from their file, and a store opened again on the
+ * same directory (such as the one filled by the command-line warm command)
+ * serves everything stored before without a download. A content file that no
+ * longer matches its hash is deleted and downloaded again. Paths stored again
+ * leave superseded lines in the index, so it is rewritten when it is opened and
+ * whenever superseded lines outnumber the paths it holds. Only one process
+ * should write to a directory at a time.
+ *
+ * Paths are partitioned by the RLS identity they were downloaded as, so one
+ * store can be shared by sessions of different users without serving a file to
+ * a user who was never allowed to download it. Contents themselves are shared,
+ * since they can only be reached through a path or by already knowing their
+ * hash.
+ */
+public class ContentStore {
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final int MAX_OBJECTS = 100_000;
+
+	private static final String INDEX = "index";
+	private static final int MIN_COMPACTION_LINES = 1_000;
+
+	private final long maxBytes;
+	private final Path directory;
+	private final Object indexLock = new Object();
+	private int indexLines;
+	private long storedBytes;
+	private final LinkedHashMap<String, byte[]> contents = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<String, StoredObject> objects = new LinkedHashMap<String, StoredObject>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, StoredObject> eldest) {
+			return size() > MAX_OBJECTS;
+		}
+	};
+
+	public ContentStore() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public ContentStore(long maxBytes) {
+		this(maxBytes, null);
+	}
+
+	private ContentStore(long maxBytes, Path directory) {
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens a store kept in a directory, creating the directory if needed.
+	 *
+	 * @throws IOException If the directory or its index could not be read, an
+	 *                     IOException is thrown.
+	 */
+	public static ContentStore open(Path directory) throws IOException {
+		return open(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param directory The directory to keep the contents and the index in.
+	 * @param maxBytes  The total size of the contents kept in memory.
+	 * @throws IOException If the directory or its index could not be read, an
+	 *                     IOException is thrown.
+	 */
+	public static ContentStore open(Path directory, long maxBytes) throws IOException {
+		ContentStore store = new ContentStore(maxBytes, directory);
+		Files.createDirectories(directory);
+		Path index = directory.resolve(INDEX);
+		int lines = 0;
+		if (Files.exists(index)) {
+			try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					lines++;
+					// identity, path, hash, charset, etag; later lines win.
+					String[] fields = line.split("\t", -1);
+					if (fields.length == 5) {
+						store.objects.put(objectKey(fields[0], fields[1]),
+								new StoredObject(fields[4].isEmpty() ? null : fields[4], fields[2], fields[3], null));
+					}
+				}
+			}
+		}
+		synchronized (store.indexLock) {
+			store.indexLines = lines;
+			if (lines > store.objects.size()) {
+				store.compact();
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * @return The number of lines in the index, or 0 if the store is kept in
+	 *         memory only.
+	 */
+	public int getIndexLines() {
+		synchronized (this.indexLock) {
+			return this.indexLines;
+		}
+	}
+
+	/**
+	 * @return The directory the store is kept in, or null if it is kept in memory
+	 *         only.
+	 */
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * A storage object that was downloaded before, together with its contents.
+	 */
+	public static class StoredObject {
+		public final String etag;
+
+		public final String hash;
+
+		public final String charset;
+
+		public final byte[] content;
+
+		public StoredObject(String etag, String hash, String charset, byte[] content) {
+			this.etag = etag;
+			this.hash = hash;
+			this.charset = charset;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * @param identity The RLS identity the object was downloaded as. Objects
+	 *                 stored under one identity are never returned to another.
+	 * @param path     The storage path of the object.
+	 * @return The stored object, or null if the path was never stored for the
+	 *         identity or its contents have been evicted.
+	 */
+	public StoredObject lookup(String identity, String path) {
+		String key = objectKey(identity, path);
+		StoredObject object;
+		synchronized (this) {
+			object = this.objects.get(key);
+		}
+		if (object == null) {
+			return null;
+		}
+		byte[] content = this.getContent(object.hash);
+		if (content == null) {
+			synchronized (this) {
+				this.objects.remove(key, object);
+			}
+			return null;
+		}
+		return new StoredObject(object.etag, object.hash, object.charset, content);
+	}
+
+	/**
+	 * @param hash The SHA-256 hash of the contents, as returned by hash.
+	 * @return The stored contents with that hash, or null if none are stored.
+	 */
+	public byte[] getContent(String hash) {
+		synchronized (this) {
+			byte[] content = this.contents.get(hash);
+			if (content != null || this.directory == null) {
+				return content;
+			}
+		}
+		byte[] content;
+		Path file = this.contentPath(hash);
+		try {
+			content = Files.readAllBytes(file);
+			if (!hash(content).equals(hash)) {
+				// Damaged on disk; storing the download again rewrites it.
+				Files.deleteIfExists(file);
+				return null;
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			// An unreadable file is as good as evicted; the caller downloads again.
+			return null;
+		}
+		if (content.length <= this.maxBytes) {
+			synchronized (this) {
+				this.remember(hash, content);
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Stores another name for an object stored before, such as the student,
+	 * assignment, version and file name it was downloaded for, so it can be looked
+	 * up without first resolving its storage path.
+	 *
+	 * @param identity The RLS identity the object was downloaded as.
+	 * @param alias    The other name of the object.
+	 * @param path     The storage path the object was stored under.
+	 * @return Whether the object was stored and the alias was added.
+	 * @throws IOException If the index could not be written, an IOException is
+	 *                     thrown.
+	 */
+	public boolean link(String identity, String alias, String path) throws IOException {
+		StoredObject object;
+		synchronized (this) {
+			object = this.objects.get(objectKey(identity, path));
+			if (object == null) {
+				return false;
+			}
+			this.objects.put(objectKey(identity, alias), object);
+		}
+		this.persist(identity, alias, object, null);
+		return true;
+	}
+
+	/**
+	 * Stores the contents downloaded from a storage path.
+	 *
+	 * @param identity The RLS identity the contents were downloaded as.
+	 * @param path     The storage path the contents were downloaded from.
+	 * @param etag     The ETag returned by the server, or null if there was none.
+	 * @param charset  The charset used to decode the contents as text.
+	 * @param content  The downloaded bytes.
+	 * @return The SHA-256 hash of the contents.
+	 * @throws IOException If the store is kept in a directory and the contents or
+	 *                     the index could not be written, an IOException is
+	 *                     thrown.
+	 */
+	public String store(String identity, String path, String etag, String charset, byte[] content)
+			throws IOException {
+		String hash = hash(content);
+		StoredObject object = new StoredObject(etag, hash, charset, null);
+		if (this.directory == null && content.length > this.maxBytes) {
+			return hash;
+		}
+		synchronized (this) {
+			if (content.length <= this.maxBytes) {
+				this.remember(hash, content);
+			}
+			this.objects.put(objectKey(identity, path), object);
+		}
+		this.persist(identity, path, object, content);
+		return hash;
+	}
+
+	private void remember(String hash, byte[] content) {
+		if (!this.contents.containsKey(hash)) {
+			this.contents.put(hash, content);
+			this.storedBytes += content.length;
+			this.evict();
+		}
+	}
+
+	/**
+	 * Writes the contents, unless a file with their hash exists, then appends the
+	 * path to the index, so the index never names contents that are missing.
+	 */
+	private void persist(String identity, String path, StoredObject object, byte[] content) throws IOException {
+		if (this.directory == null) {
+			return;
+		}
+		if (identity.indexOf('\t') >= 0 || identity.indexOf('\n') >= 0 || path.indexOf('\t') >= 0
+				|| path.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException(String.format("Cannot store path '%s' of '%s' in an index.", path,
+					identity));
+		}
+		Path file = this.contentPath(object.hash);
+		if (content != null && !Files.exists(file)) {
+			Files.createDirectories(file.getParent());
+			Path partial = Files.createTempFile(file.getParent(), object.hash, ".part");
+			Files.write(partial, content);
+			Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		String line = String.join("\t", identity, path, object.hash, object.charset,
+				object.etag == null ? "" : object.etag) + "\n";
+		synchronized (this.indexLock) {
+			Files.write(this.directory.resolve(INDEX), line.getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			this.indexLines++;
+			int live;
+			synchronized (this) {
+				live = this.objects.size();
+			}
+			if (this.indexLines - live > Math.max(MIN_COMPACTION_LINES, live)) {
+				this.compact();
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the index with one line per path the store holds, replacing the
+	 * old index at once. Must be called holding the index lock.
+	 */
+	private void compact() throws IOException {
+		List<String> lines = new ArrayList<>();
+		synchronized (this) {
+			// Eldest first, so a reopened store keeps the recency order.
+			for (Map.Entry<String, StoredObject> entry : this.objects.entrySet()) {
+				int separator = entry.getKey().indexOf('\0');
+				StoredObject object = entry.getValue();
+				lines.add(String.join("\t", entry.getKey().substring(0, separator),
+						entry.getKey().substring(separator + 1), object.hash, object.charset,
+						object.etag == null ? "" : object.etag));
+			}
+		}
+		Path partial = Files.createTempFile(this.directory, INDEX, ".part");
+		Files.write(partial, lines, StandardCharsets.UTF_8);
+		Files.move(partial, this.directory.resolve(INDEX), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		this.indexLines = lines.size();
+	}
+
+	private Path contentPath(String hash) {
+		return this.directory.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	public synchronized long getStoredBytes() {
+		return this.storedBytes;
+	}
+
+	public synchronized int getStoredContents() {
+		return this.contents.size();
+	}
+
+	private static String objectKey(String identity, String path) {
+		return identity + "\0" + path;
+	}
+
+	private void evict() {
+		while (this.storedBytes > this.maxBytes && !this.contents.isEmpty()) {
+			Map.Entry<String, byte[]> eldest = this.contents.entrySet().iterator().next();
+			this.storedBytes -= eldest.getValue().length;
+			this.contents.remove(eldest.getKey());
+		}
+	}
+
+	/**
+	 * @return The lowercase hex SHA-256 hash of the given bytes.
+	 */
+	public static String hash(byte[] content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return toHex(digest.digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	/**
+	 * @return The lowercase hex SHA-256 hash of the UTF-8 bytes of the given text.
+	 */
+	public static String hash(String content) {
+		return hash(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+}
@@ -2,6 +2,8 @@ package submissions;
 
 import com.google.api.client.util.Key;
 
+import profiles.ProfileResponse;
+
 public class AssignmentSubmissionResponse {
 
 	@Key
@@ -23,4 +25,8 @@ public class AssignmentSubmissionResponse {
     @Key
     public String created_at;
 
+    // Only present when the profile is embedded, e.g. "*,profile(auth_id)"
+    @Key("profile")
+    public ProfileResponse profile;
+
 }
@@ -0,0 +1,53 @@
+package submissions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The differences between two submitted versions of an assignment by one
+ * student, by file name. Files are compared by the ETag (content hash) storage
+ * reports for them, so no file contents are downloaded to build the diff.
+ */
+public class VersionDiff {
+    public final int fromVersion;
+
+    public final int toVersion;
+
+    // Files in the new version only
+    public final List<String> added = new ArrayList<>();
+
+    // Files in both versions whose contents differ
+    public final List<String> changed = new ArrayList<>();
+
+    // Files in both versions with identical contents
+    public final List<String> unchanged = new ArrayList<>();
+
+    // Files in the old version only
+    public final List<String> removed = new ArrayList<>();
+
+    // The submission rows of the new version, by file name
+    public final Map<String, AssignmentSubmissionResponse> submissions = new LinkedHashMap<>();
+
+    public VersionDiff(int fromVersion, int toVersion) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+    }
+
+    /**
+     * @return The files of the new version that have to be downloaded, because
+     *         they were added or changed.
+     */
+    public List<String> getFilesToDownload() {
+        List<String> files = new ArrayList<>(this.added);
+        files.addAll(this.changed);
+        return files;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("v%d->v%d, added:%s, changed:%s, unchanged:%s, removed:%s", fromVersion, toVersion,
+                added, changed, unchanged, removed);
+    }
+}